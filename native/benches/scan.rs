@@ -0,0 +1,200 @@
+//! Benchmarks for each phase of scanning a repository.
+//!
+//! The synthetic repositories are created under `target/bench-repos` the first time they are
+//! needed, and reused after that. Each one has a deep history and a flat set of tracked files, and
+//! is benchmarked both clean and with the last file in the index modified (the worst case for
+//! stopping at the first change). Set `GIT_DETAILS_BENCH_FILES` to a comma separated list of file
+//! counts to only benchmark those sizes.
+//!
+//! The `status_<n>_threads` benchmarks compare the parallel dirty check against `status`, using up
+//! to as many threads as there are cores.
+
+use std::env;
+use std::fs;
+use std::hint::black_box;
+use std::path::{Path, PathBuf};
+use std::thread;
+
+use criterion::{BatchSize, Criterion, criterion_group, criterion_main};
+use git2::{IndexAddOption, Oid, Repository, Signature, Time};
+use git_details::{BuildDate, DirtyCheck, DirtyLevel, Options, Result, Results};
+
+const DEFAULT_FILE_COUNTS: &[usize] = &[1_000, 100_000, 1_000_000];
+const HISTORY_DEPTH: usize = 1_000;
+const FILES_PER_DIR: usize = 1_000;
+const CONTENTS: &str = "benchmark\n";
+const THREAD_COUNTS: &[usize] = &[2, 4, 8, 16];
+
+#[derive(Debug, Clone, Copy)]
+enum TreeState {
+    Clean,
+    Dirty,
+}
+
+impl TreeState {
+    fn name(self) -> &'static str {
+        match self {
+            TreeState::Clean => "clean",
+            TreeState::Dirty => "dirty",
+        }
+    }
+}
+
+fn file_counts() -> Vec<usize> {
+    match env::var("GIT_DETAILS_BENCH_FILES") {
+        Ok(counts) => counts
+            .split(',')
+            .filter_map(|count| count.trim().parse().ok())
+            .collect(),
+        Err(_) => DEFAULT_FILE_COUNTS.to_vec(),
+    }
+}
+
+/// The path of the `i`th tracked file. Zero padded, so that the index is in the same order.
+fn file_path(i: usize) -> PathBuf {
+    PathBuf::from(format!("dir{:04}/file{i:07}.txt", i / FILES_PER_DIR))
+}
+
+/// Gets the benchmark repository with `files` tracked files, creating it if it does not exist.
+fn fixture(files: usize, state: TreeState) -> PathBuf {
+    let path = Path::new(env!("CARGO_MANIFEST_DIR"))
+        .join("target/bench-repos")
+        .join(format!("{files}-files-{}", state.name()));
+    // only written once the repository is complete, so an interrupted run starts over
+    let marker = path.join(".git/bench-complete");
+    if !marker.exists() {
+        if path.exists() {
+            fs::remove_dir_all(&path).expect("Failed to remove incomplete benchmark repository");
+        }
+        create_repository(&path, files).expect("Failed to create benchmark repository");
+        if let TreeState::Dirty = state {
+            fs::write(path.join(file_path(files - 1)), "changed\n")
+                .expect("Failed to modify benchmark repository");
+        }
+        fs::write(&marker, "").expect("Failed to mark benchmark repository as complete");
+    }
+    path
+}
+
+fn create_repository(path: &Path, files: usize) -> Result<()> {
+    let repo = Repository::init(path)?;
+    let signature = Signature::new("Benchmark", "bench@example.com", &Time::new(1_700_000_000, 0))?;
+
+    // a chain of commits that each change one file
+    let mut parent: Option<Oid> = None;
+    for depth in 0..HISTORY_DEPTH {
+        let blob = repo.blob(format!("{depth}\n").as_bytes())?;
+        let mut builder = repo.treebuilder(None)?;
+        builder.insert("history.txt", blob, 0o100644)?;
+        let tree = repo.find_tree(builder.write()?)?;
+        let parents = match parent {
+            Some(id) => vec![repo.find_commit(id)?],
+            None => Vec::new(),
+        };
+        let parents: Vec<_> = parents.iter().collect();
+        parent = Some(repo.commit(None, &signature, &signature, "history", &tree, &parents)?);
+    }
+
+    // the last commit has every tracked file
+    fs::write(path.join("history.txt"), format!("{HISTORY_DEPTH}\n"))?;
+    for i in 0..files {
+        let file = path.join(file_path(i));
+        if i % FILES_PER_DIR == 0 {
+            fs::create_dir_all(file.parent().ok_or("Cannot get parent directory!")?)?;
+        }
+        fs::write(file, CONTENTS)?;
+    }
+    let mut index = repo.index()?;
+    index.add_all(["*"], IndexAddOption::DEFAULT, None)?;
+    index.write()?;
+    let tree = repo.find_tree(index.write_tree()?)?;
+    let parents = match parent {
+        Some(id) => vec![repo.find_commit(id)?],
+        None => Vec::new(),
+    };
+    let parents: Vec<_> = parents.iter().collect();
+    repo.commit(Some("HEAD"), &signature, &signature, "files", &tree, &parents)?;
+    Ok(())
+}
+
+fn thread_counts() -> Vec<usize> {
+    let cores = thread::available_parallelism().map_or(1, |cores| cores.get());
+    THREAD_COUNTS
+        .iter()
+        .copied()
+        .filter(|&threads| threads <= cores.max(2))
+        .collect()
+}
+
+fn phases(c: &mut Criterion) {
+    for files in file_counts() {
+        for state in [TreeState::Clean, TreeState::Dirty] {
+            let path = fixture(files, state);
+            let mut group = c.benchmark_group(format!("{files}_files_{}", state.name()));
+            if files >= 100_000 {
+                group.sample_size(10);
+            }
+            group.bench_function("open", |b| {
+                b.iter(|| Repository::open(black_box(&path)).unwrap())
+            });
+            let repo = Repository::open(&path).unwrap();
+            group.bench_function("head_peel", |b| {
+                b.iter(|| repo.head().unwrap().peel_to_commit().unwrap().id())
+            });
+            group.bench_function("status", |b| {
+                b.iter(|| DirtyCheck::default().is_dirty(&repo).unwrap())
+            });
+            for (name, level) in [
+                ("status_top_level_untracked", DirtyLevel::TopLevelUntracked),
+                ("status_untracked", DirtyLevel::Full),
+            ] {
+                let check = DirtyCheck {
+                    level,
+                    ..DirtyCheck::default()
+                };
+                group.bench_function(name, |b| b.iter(|| check.is_dirty(&repo).unwrap()));
+            }
+            for threads in thread_counts() {
+                let parallel_status = DirtyCheck {
+                    threads,
+                    ..DirtyCheck::default()
+                };
+                group.bench_function(format!("status_{threads}_threads"), |b| {
+                    b.iter(|| parallel_status.is_dirty(&repo).unwrap())
+                });
+            }
+            let full_status = DirtyCheck {
+                level: DirtyLevel::Full,
+                recurse_untracked_dirs: true,
+                ..DirtyCheck::default()
+            };
+            group.bench_function("full_status", |b| {
+                b.iter(|| full_status.is_dirty(&repo).unwrap())
+            });
+            group.bench_function("end_to_end", |b| {
+                b.iter(|| {
+                    Results::build_date_new(black_box(&path), Options::empty(), BuildDate::Omit)
+                        .unwrap()
+                })
+            });
+            group.finish();
+        }
+    }
+}
+
+/// Writing does not depend on the size of the repository, so it is only measured once.
+fn write(c: &mut Criterion) {
+    let path = fixture(DEFAULT_FILE_COUNTS[0], TreeState::Clean);
+    // inside of the git directory, so it does not make the repository dirty
+    let output = path.join(".git/bench-output/git-info.properties");
+    c.bench_function("write", |b| {
+        b.iter_batched(
+            || Results::build_date_new(&path, Options::empty(), BuildDate::Omit).unwrap(),
+            |results| results.create_java_properties(&output).unwrap(),
+            BatchSize::SmallInput,
+        )
+    });
+}
+
+criterion_group!(benches, phases, write);
+criterion_main!(benches);
@@ -0,0 +1,112 @@
+//! Shallow and partial clones, which only have some of the repository's objects.
+//!
+//! CI systems often clone with `--depth=1` (a shallow clone, which is missing the history before
+//! the fetched commits) or `--filter=blob:none` (a partial clone, which fetches objects from a
+//! "promisor" remote when they are first needed). libgit2 can't fetch missing objects, so
+//! anything that needs them fails with a not found error. Rather than failing the whole scan, the
+//! details that need missing objects are left out, and the dirty check only compares the index
+//! against the working tree, which never needs a blob from the object database.
+
+use std::collections::HashSet;
+use std::fs;
+use std::sync::OnceLock;
+
+use git2::{ErrorCode, Oid, Repository};
+
+use crate::{Error, Result};
+
+/// Which objects a clone may be missing.
+#[derive(Debug, Clone, Default, PartialEq, Eq)]
+pub struct CloneKind {
+    /// The commits whose parents were not fetched, which are empty if this is not a shallow clone
+    boundary: HashSet<Oid>,
+    /// If objects may be missing because they were filtered out when fetching
+    pub partial: bool,
+}
+
+impl CloneKind {
+    /// Detects if a repository is a shallow or partial clone.
+    pub fn detect(repo: &Repository) -> CloneKind {
+        CloneKind {
+            boundary: shallow_boundary(repo),
+            partial: is_partial(repo),
+        }
+    }
+
+    /// If the history is cut short at some commits.
+    pub fn shallow(&self) -> bool {
+        !self.boundary.is_empty()
+    }
+
+    /// If the parents of `commit` were not fetched, so its parents are unknown rather than absent.
+    pub fn is_boundary(&self, commit: Oid) -> bool {
+        self.boundary.contains(&commit)
+    }
+
+    /// If the clone may be missing objects that it refers to.
+    pub fn incomplete(&self) -> bool {
+        self.shallow() || self.partial
+    }
+
+    /// If `err` is because an object the clone doesn't have was needed, rather than a problem
+    /// with the repository.
+    pub fn is_missing_object(&self, err: &Error) -> bool {
+        self.incomplete()
+            && err
+                .downcast_ref::<git2::Error>()
+                .is_some_and(|err| err.code() == ErrorCode::NotFound)
+    }
+}
+
+/// Allows libgit2 to open partial clones. git marks them with the `extensions.partialclone`
+/// setting, which libgit2 refuses to open repositories with unless it is told about it. Reading
+/// a partial clone works like reading any other repository, as long as missing objects are
+/// expected.
+///
+/// The setting is only changed by the first call; later calls return the same result.
+pub(crate) fn allow_partial_clones() -> Result<()> {
+    static ALLOWED: OnceLock<std::result::Result<(), String>> = OnceLock::new();
+    ALLOWED
+        .get_or_init(|| {
+            // SAFETY: this runs once, before any repository is opened by this library
+            unsafe { git2::opts::set_extensions(&["partialclone"]) }.map_err(|err| {
+                format!("Failed to allow opening partial clones: {}", err.message())
+            })
+        })
+        .clone()
+        .map_err(Error::from)
+}
+
+/// Reads the commits listed in the `shallow` file of the git directory.
+fn shallow_boundary(repo: &Repository) -> HashSet<Oid> {
+    if !repo.is_shallow() {
+        return HashSet::new();
+    }
+    let Ok(contents) = fs::read_to_string(repo.commondir().join("shallow")) else {
+        return HashSet::new();
+    };
+    contents
+        .lines()
+        .filter_map(|line| Oid::from_str(line.trim()).ok())
+        .collect()
+}
+
+fn is_partial(repo: &Repository) -> bool {
+    let Ok(config) = repo.config() else {
+        return false;
+    };
+    if config.get_string("extensions.partialclone").is_ok() {
+        return true;
+    }
+    // older versions of git only mark the promisor remote
+    let Ok(mut entries) = config.entries(Some(r"^remote\..*\.promisor$")) else {
+        return false;
+    };
+    let mut partial = false;
+    while let Some(Ok(entry)) = entries.next() {
+        partial |= entry
+            .name()
+            .is_some_and(|name| config.get_bool(name).unwrap_or(false));
+    }
+    partial
+}
@@ -0,0 +1,605 @@
+//! `git describe` style versions: the nearest tag, and how many commits were made since it.
+//!
+//! Finding the distance to the nearest tag walks the history, which is slow for large histories.
+//! Like git, the distances to every candidate tag are counted in one walk, which stops as soon as
+//! the nearest tag is known, rather than at the root. The results can also be cached in a file
+//! outside of the repository (e.g. in the build directory), keyed by the set of tags, so that
+//! later scans only walk the commits made since the last one.
+
+use std::cmp::Reverse;
+use std::collections::{BinaryHeap, HashMap};
+use std::fs;
+use std::io::Write;
+use std::path::Path;
+
+use git2::{Commit, ObjectType, Oid, Repository};
+
+use crate::Result;
+
+/// The name of the cache file in the cache directory of a scan (see [`crate::ScanConfig`])
+pub const CACHE_FILE: &str = "describe-cache";
+const CACHE_HEADER: &str = "git_details describe cache v2";
+/// The number of tagged commits that are compared to find the nearest, like
+/// `git describe --candidates`
+const MAX_CANDIDATES: usize = 10;
+/// The number of scans that are kept in the cache
+const CACHE_ENTRIES: usize = 16;
+
+/// The nearest tag of a commit, and how far the commit is from it.
+#[derive(Debug, Clone, PartialEq, Eq)]
+pub struct Describe {
+    /// The name of the nearest tag, if any tag is reachable
+    pub tag: Option<String>,
+    /// The number of commits that are reachable from the commit, but not from the tag
+    pub distance: usize,
+    /// The shortest unique abbreviation of the SHA of the commit
+    pub abbreviated_sha: String,
+}
+
+impl Describe {
+    /// Describes a commit. Both annotated and lightweight tags are considered (like
+    /// `git describe --tags`). Like git, the first 10 tagged commits found walking the history
+    /// from newest to oldest are candidates, and the nearest tag is the candidate with the fewest
+    /// commits since it; ties go to the candidate found first.
+    ///
+    /// `cache` is the file that recent results are kept in, if any; failing to read or write it
+    /// only makes the scan slower.
+    pub fn new(repo: &Repository, commit: &Commit, cache: Option<&Path>) -> Result<Describe> {
+        let abbreviated_sha = commit
+            .as_object()
+            .short_id()?
+            .as_str()
+            .ok_or("Abbreviated SHA is not valid UTF-8!")?
+            .to_string();
+        let tags = Tags::read(repo)?;
+        // the history of a shallow clone is incomplete until it is deepened, so results from it
+        // must not be used (or cached) as if they were final
+        let Some(cache_path) = cache.filter(|_| !repo.is_shallow()) else {
+            let nearest = nearest_tag(repo, commit.id(), &tags)?;
+            return Ok(Self::from_nearest(nearest, &tags, abbreviated_sha));
+        };
+        let mut cache = Cache::read(cache_path, tags.fingerprint);
+        let nearest = match cache.lookup(repo, commit.id(), &tags)? {
+            Some(nearest) => nearest,
+            None => nearest_tag(repo, commit.id(), &tags)?,
+        };
+        cache.insert(commit.id(), nearest);
+        // the cache only makes later scans faster, so failing to write it isn't an error
+        let _ = cache.write(cache_path);
+        Ok(Self::from_nearest(nearest, &tags, abbreviated_sha))
+    }
+
+    fn from_nearest(nearest: Option<Nearest>, tags: &Tags, abbreviated_sha: String) -> Describe {
+        Describe {
+            tag: nearest.map(|nearest| tags.names[&nearest.tagged].clone()),
+            distance: nearest.map_or(0, |nearest| nearest.distance),
+            abbreviated_sha,
+        }
+    }
+
+    /// Formats the description like `git describe --tags --always`: the tag alone if the commit is
+    /// tagged, `<tag>-<distance>-g<abbreviated sha>` if it isn't, and the abbreviated SHA alone if
+    /// there is no tag.
+    pub fn version(&self) -> String {
+        match self.tag {
+            Some(ref tag) if self.distance == 0 => tag.clone(),
+            Some(ref tag) => format!("{tag}-{}-g{}", self.distance, self.abbreviated_sha),
+            None => self.abbreviated_sha.clone(),
+        }
+    }
+}
+
+#[derive(Debug, Clone, Copy, PartialEq, Eq)]
+struct Nearest {
+    /// The tagged commit
+    tagged: Oid,
+    distance: usize,
+}
+
+struct Tags {
+    /// The name of the tag of each tagged commit
+    names: HashMap<Oid, String>,
+    /// Identifies the set of tags, so cached results are thrown away when a tag is changed
+    fingerprint: Oid,
+}
+
+impl Tags {
+    fn read(repo: &Repository) -> Result<Tags> {
+        // (annotated, name) of the preferred tag of each commit
+        let mut preferred: HashMap<Oid, (bool, String)> = HashMap::new();
+        let mut refs = Vec::new();
+        for reference in repo.references_glob("refs/tags/*")? {
+            let reference = reference?;
+            let (Some(name), Some(target)) = (reference.shorthand(), reference.target()) else {
+                continue;
+            };
+            refs.push(format!("{target} {name}\n"));
+            // tags of trees and blobs can't be described
+            let Ok(commit) = reference.peel_to_commit() else {
+                continue;
+            };
+            // like git, prefer annotated tags, then (for determinism) the name that sorts last
+            let candidate = (reference.peel(ObjectType::Tag).is_ok(), name.to_string());
+            if preferred
+                .get(&commit.id())
+                .is_none_or(|existing| *existing < candidate)
+            {
+                preferred.insert(commit.id(), candidate);
+            }
+        }
+        refs.sort();
+        Ok(Tags {
+            names: preferred
+                .into_iter()
+                .map(|(commit, (_, name))| (commit, name))
+                .collect(),
+            fingerprint: Oid::hash_object(ObjectType::Blob, refs.concat().as_bytes())?,
+        })
+    }
+}
+
+/// A tagged commit that may be the nearest, like `struct possible_tag` in git's `describe.c`.
+struct Candidate {
+    tagged: Oid,
+    /// The number of visited commits that can't be reached from the tagged commit
+    depth: usize,
+    /// The bit that marks the commits that can be reached from the tagged commit
+    within: u32,
+}
+
+/// Finds the nearest tag like `git describe` does, in one walk of the history from `head`, newest
+/// commit first. Every visited commit is marked with the candidates it can be reached from, and
+/// each candidate counts the visited commits that it can't reach. Once every commit left to visit
+/// can be reached from the best candidate, its count can't grow and no other candidate can beat
+/// it, so the walk stops there instead of going back to the root.
+fn nearest_tag(repo: &Repository, head: Oid, tags: &Tags) -> Result<Option<Nearest>> {
+    let mut walk = Walk::new(repo, head)?;
+    let mut candidates: Vec<Candidate> = Vec::new();
+    let mut visited = 0;
+    while let Some(oid) = walk.peek() {
+        let tagged = tags.names.contains_key(&oid);
+        if tagged && candidates.len() == MAX_CANDIDATES {
+            // like git, the other candidates are dropped, and only the best one is counted on
+            break;
+        }
+        walk.pop();
+        if tagged {
+            let within = 1 << candidates.len();
+            walk.mark(oid, within);
+            candidates.push(Candidate {
+                tagged: oid,
+                depth: visited,
+                within,
+            });
+        }
+        visited += 1;
+        let flags = walk.flags(oid);
+        for candidate in &mut candidates {
+            if flags & candidate.within == 0 {
+                candidate.depth += 1;
+            }
+        }
+        walk.visit_parents(oid)?;
+        let best = best_candidate(&candidates);
+        if best.is_some_and(|best| flags & best.within != 0 && walk.all_within(best.within)) {
+            return Ok(best.map(Candidate::nearest));
+        }
+    }
+    let Some(best) = best_candidate(&candidates) else {
+        return Ok(None);
+    };
+    let mut depth = best.depth;
+    while let Some(oid) = walk.pop() {
+        if walk.flags(oid) & best.within != 0 {
+            if walk.all_within(best.within) {
+                break;
+            }
+        } else {
+            depth += 1;
+        }
+        walk.visit_parents(oid)?;
+    }
+    Ok(Some(Nearest {
+        tagged: best.tagged,
+        distance: depth,
+    }))
+}
+
+/// The candidate with the fewest commits since it; ties go to the candidate found first.
+fn best_candidate(candidates: &[Candidate]) -> Option<&Candidate> {
+    candidates.iter().min_by_key(|candidate| candidate.depth)
+}
+
+impl Candidate {
+    fn nearest(&self) -> Nearest {
+        Nearest {
+            tagged: self.tagged,
+            distance: self.depth,
+        }
+    }
+}
+
+/// The commits left to visit, newest first (by commit time, then in the order they were found,
+/// like `commit_list_insert_by_date`), and the candidates that each found commit can be reached
+/// from.
+struct Walk<'r> {
+    repo: &'r Repository,
+    queue: BinaryHeap<(i64, Reverse<u64>, Oid)>,
+    found: u64,
+    /// The candidates that each found commit can be reached from, as [`Candidate::within`] bits
+    flags: HashMap<Oid, u32>,
+}
+
+impl<'r> Walk<'r> {
+    fn new(repo: &'r Repository, head: Oid) -> Result<Walk<'r>> {
+        let mut walk = Walk {
+            repo,
+            queue: BinaryHeap::new(),
+            found: 0,
+            flags: HashMap::new(),
+        };
+        walk.find(head, 0)?;
+        Ok(walk)
+    }
+
+    fn peek(&self) -> Option<Oid> {
+        self.queue.peek().map(|&(_, _, oid)| oid)
+    }
+
+    fn pop(&mut self) -> Option<Oid> {
+        self.queue.pop().map(|(_, _, oid)| oid)
+    }
+
+    fn flags(&self, oid: Oid) -> u32 {
+        self.flags.get(&oid).copied().unwrap_or(0)
+    }
+
+    fn mark(&mut self, oid: Oid, within: u32) {
+        *self.flags.entry(oid).or_default() |= within;
+    }
+
+    /// Queues the parents of a visited commit that weren't found yet, and marks them with the
+    /// candidates that the commit can be reached from.
+    fn visit_parents(&mut self, oid: Oid) -> Result<()> {
+        let flags = self.flags(oid);
+        let parents: Vec<Oid> = self.repo.find_commit(oid)?.parent_ids().collect();
+        for parent in parents {
+            if self.flags.contains_key(&parent) {
+                self.mark(parent, flags);
+            } else {
+                self.find(parent, flags)?;
+            }
+        }
+        Ok(())
+    }
+
+    fn find(&mut self, oid: Oid, flags: u32) -> Result<()> {
+        let time = self.repo.find_commit(oid)?.time().seconds();
+        self.queue.push((time, Reverse(self.found), oid));
+        self.found += 1;
+        self.flags.insert(oid, flags);
+        Ok(())
+    }
+
+    /// If every commit left to visit can be reached from a candidate.
+    fn all_within(&self, within: u32) -> bool {
+        self.queue
+            .iter()
+            .all(|&(_, _, oid)| self.flags(oid) & within != 0)
+    }
+}
+
+/// The results of recent scans.
+struct Cache {
+    fingerprint: Oid,
+    /// The most recent scan is first
+    entries: Vec<(Oid, Option<Nearest>)>,
+}
+
+impl Cache {
+    fn read(path: &Path, fingerprint: Oid) -> Cache {
+        let mut cache = Cache {
+            fingerprint,
+            entries: Vec::new(),
+        };
+        let Ok(contents) = fs::read_to_string(path) else {
+            return cache;
+        };
+        let mut lines = contents.lines();
+        if lines.next() != Some(CACHE_HEADER)
+            || lines.next() != Some(format!("tags {fingerprint}").as_str())
+        {
+            return cache;
+        }
+        for line in lines {
+            let mut fields = line.split(' ');
+            let (Some(commit), Some(tagged), Some(distance)) =
+                (fields.next(), fields.next(), fields.next())
+            else {
+                continue;
+            };
+            let Ok(commit) = Oid::from_str(commit) else {
+                continue;
+            };
+            let nearest = match (tagged, distance.parse()) {
+                ("-", _) => None,
+                (tagged, Ok(distance)) => match Oid::from_str(tagged) {
+                    Ok(tagged) => Some(Nearest { tagged, distance }),
+                    Err(_) => continue,
+                },
+                (_, Err(_)) => continue,
+            };
+            cache.entries.push((commit, nearest));
+        }
+        cache
+    }
+
+    /// Finds the nearest tag of `head` using a cached scan of `head` or one of its ancestors.
+    fn lookup(
+        &self,
+        repo: &Repository,
+        head: Oid,
+        tags: &Tags,
+    ) -> Result<Option<Option<Nearest>>> {
+        if let Some((_, nearest)) = self.entries.iter().find(|(commit, _)| *commit == head) {
+            return Ok(Some(*nearest));
+        }
+        for (commit, nearest) in &self.entries {
+            // the cached commit may have been garbage collected
+            if !repo.graph_descendant_of(head, *commit).unwrap_or(false) {
+                continue;
+            }
+            // the commits reachable from the tag are split into those reachable from the cached
+            // commit (already counted) and the new commits, which are counted here
+            let mut walk = repo.revwalk()?;
+            walk.push(head)?;
+            walk.hide(*commit)?;
+            if let Some(nearest) = nearest {
+                walk.hide(nearest.tagged)?;
+            }
+            let mut new_commits = 0;
+            for oid in walk {
+                // a new tagged commit may be nearer, so the history has to be searched again
+                if tags.names.contains_key(&oid?) {
+                    return Ok(None);
+                }
+                new_commits += 1;
+            }
+            return Ok(Some(nearest.map(|nearest| Nearest {
+                tagged: nearest.tagged,
+                distance: nearest.distance + new_commits,
+            })));
+        }
+        Ok(None)
+    }
+
+    fn insert(&mut self, head: Oid, nearest: Option<Nearest>) {
+        self.entries.retain(|(commit, _)| *commit != head);
+        self.entries.insert(0, (head, nearest));
+        self.entries.truncate(CACHE_ENTRIES);
+    }
+
+    /// Writes the cache, replacing the old one atomically so that concurrent builds never read a
+    /// partially written cache.
+    fn write(&self, path: &Path) -> Result<()> {
+        let parent = path.parent().ok_or("Cannot get parent directory!")?;
+        fs::create_dir_all(parent)?;
+        let temp_path = parent.join(format!("{CACHE_FILE}.{}.tmp", std::process::id()));
+        let mut file = fs::File::create(&temp_path)?;
+        writeln!(file, "{CACHE_HEADER}")?;
+        writeln!(file, "tags {}", self.fingerprint)?;
+        for (commit, nearest) in &self.entries {
+            match nearest {
+                Some(nearest) => {
+                    writeln!(file, "{commit} {} {}", nearest.tagged, nearest.distance)?
+                }
+                None => writeln!(file, "{commit} - 0")?,
+            }
+        }
+        drop(file);
+        fs::rename(&temp_path, path).inspect_err(|_| {
+            let _ = fs::remove_file(&temp_path);
+        })?;
+        Ok(())
+    }
+}
+
+#[cfg(test)]
+mod tests {
+    use std::path::PathBuf;
+    use std::process::Command;
+    use std::sync::atomic::{AtomicUsize, Ordering};
+
+    use git2::{Signature, Time};
+
+    use super::*;
+
+    /// A repository in a temporary directory, which is deleted when it is dropped. Each commit is
+    /// made a minute after the last, so the order that the history is walked in is fixed.
+    struct TestRepo {
+        dir: PathBuf,
+        repo: Repository,
+        time: i64,
+    }
+
+    impl TestRepo {
+        fn new() -> TestRepo {
+            static COUNT: AtomicUsize = AtomicUsize::new(0);
+            let dir = std::env::temp_dir().join(format!(
+                "git_details_describe_{}_{}",
+                std::process::id(),
+                COUNT.fetch_add(1, Ordering::Relaxed)
+            ));
+            let _ = fs::remove_dir_all(&dir);
+            fs::create_dir_all(&dir).unwrap();
+            let repo = Repository::init(&dir).unwrap();
+            TestRepo {
+                dir,
+                repo,
+                time: 1_700_000_000,
+            }
+        }
+
+        /// Commits an empty tree on top of `parents`, without moving any branch.
+        fn commit(&mut self, parents: &[Oid]) -> Oid {
+            self.time += 60;
+            let signature =
+                Signature::new("Test", "test@example.com", &Time::new(self.time, 0)).unwrap();
+            let tree = self.repo.treebuilder(None).unwrap().write().unwrap();
+            let tree = self.repo.find_tree(tree).unwrap();
+            let parents: Vec<_> = parents
+                .iter()
+                .map(|parent| self.repo.find_commit(*parent).unwrap())
+                .collect();
+            let parents: Vec<_> = parents.iter().collect();
+            self.repo
+                .commit(None, &signature, &signature, "commit", &tree, &parents)
+                .unwrap()
+        }
+
+        fn tag(&self, name: &str, commit: Oid) {
+            let commit = self.repo.find_object(commit, None).unwrap();
+            self.repo.tag_lightweight(name, &commit, false).unwrap();
+        }
+
+        /// Checks that both `git describe --tags` and [`Describe`] describe `head` as `expected`,
+        /// which is `(tag, distance)`, or `None` if no tag can be reached.
+        fn assert_describes(&self, head: Oid, expected: Option<(&str, usize)>) {
+            let commit = self.repo.find_commit(head).unwrap();
+            let sha = commit.as_object().short_id().unwrap();
+            let sha = sha.as_str().unwrap();
+            let expected = match expected {
+                Some((tag, 0)) => tag.to_string(),
+                Some((tag, distance)) => format!("{tag}-{distance}-g{sha}"),
+                None => sha.to_string(),
+            };
+            let output = Command::new("git")
+                .arg("-C")
+                .arg(&self.dir)
+                .args(["describe", "--tags", "--always", "--abbrev=7"])
+                .arg(head.to_string())
+                .output()
+                .unwrap();
+            assert!(output.status.success(), "git describe failed: {output:?}");
+            let git = String::from_utf8(output.stdout).unwrap();
+            assert_eq!(git.trim(), expected, "git describe");
+            let describe = Describe::new(&self.repo, &commit, None).unwrap();
+            assert_eq!(describe.version(), expected);
+        }
+    }
+
+    impl Drop for TestRepo {
+        fn drop(&mut self) {
+            let _ = fs::remove_dir_all(&self.dir);
+        }
+    }
+
+    #[test]
+    fn no_tags() {
+        let mut test = TestRepo::new();
+        let root = test.commit(&[]);
+        let head = test.commit(&[root]);
+        test.assert_describes(head, None);
+    }
+
+    #[test]
+    fn tagged_head() {
+        let mut test = TestRepo::new();
+        let root = test.commit(&[]);
+        test.tag("v1.0", root);
+        let head = test.commit(&[root]);
+        test.tag("v1.1", head);
+        test.assert_describes(head, Some(("v1.1", 0)));
+    }
+
+    #[test]
+    fn linear_history() {
+        let mut test = TestRepo::new();
+        let mut head = test.commit(&[]);
+        test.tag("v1.0", head);
+        for _ in 0..3 {
+            head = test.commit(&[head]);
+        }
+        test.tag("v1.1", head);
+        for _ in 0..5 {
+            head = test.commit(&[head]);
+        }
+        test.assert_describes(head, Some(("v1.1", 5)));
+    }
+
+    #[test]
+    fn newer_tag_on_merged_branch() {
+        // root - a (v1.0) - b - c - merge - head
+        //          \                /
+        //           side - side_tag (v2.0)
+        let mut test = TestRepo::new();
+        let root = test.commit(&[]);
+        let a = test.commit(&[root]);
+        test.tag("v1.0", a);
+        let side = test.commit(&[a]);
+        let side_tag = test.commit(&[side]);
+        test.tag("v2.0", side_tag);
+        let b = test.commit(&[a]);
+        let c = test.commit(&[b]);
+        let merge = test.commit(&[c, side_tag]);
+        let head = test.commit(&[merge]);
+        test.assert_describes(head, Some(("v2.0", 4)));
+    }
+
+    #[test]
+    fn older_tag_nearer_than_merged_branch() {
+        // root - p1 - p2 - a (v1.0) - merge - head
+        //    \                       /
+        //     side_tag (v2.0) ------
+        // the newer tag is found first, but more commits were made since it
+        let mut test = TestRepo::new();
+        let root = test.commit(&[]);
+        let p1 = test.commit(&[root]);
+        let p2 = test.commit(&[p1]);
+        let a = test.commit(&[p2]);
+        test.tag("v1.0", a);
+        let side_tag = test.commit(&[root]);
+        test.tag("v2.0", side_tag);
+        let merge = test.commit(&[a, side_tag]);
+        let head = test.commit(&[merge]);
+        test.assert_describes(head, Some(("v1.0", 3)));
+    }
+
+    #[test]
+    fn more_tags_than_candidates() {
+        // an octopus merge of more tagged branches than there are candidates, so the walk gives up
+        // on finding more and only finishes counting for the best one
+        let mut test = TestRepo::new();
+        let root = test.commit(&[]);
+        let branches: Vec<_> = (0..=MAX_CANDIDATES)
+            .map(|i| {
+                let branch = test.commit(&[root]);
+                test.tag(&format!("t{i:02}"), branch);
+                branch
+            })
+            .collect();
+        let head = test.commit(&branches);
+        let newest = format!("t{MAX_CANDIDATES:02}");
+        test.assert_describes(head, Some((newest.as_str(), MAX_CANDIDATES + 1)));
+    }
+
+    #[test]
+    fn cached_result_matches_walk() {
+        let mut test = TestRepo::new();
+        let root = test.commit(&[]);
+        test.tag("v1.0", root);
+        let side_tag = test.commit(&[root]);
+        test.tag("v2.0", side_tag);
+        let main = test.commit(&[root]);
+        let merge = test.commit(&[main, side_tag]);
+        let cache = test.dir.join("cache").join(CACHE_FILE);
+        let commit = test.repo.find_commit(merge).unwrap();
+        let first = Describe::new(&test.repo, &commit, Some(&cache)).unwrap();
+        let head = test.commit(&[merge]);
+        let commit = test.repo.find_commit(head).unwrap();
+        let cached = Describe::new(&test.repo, &commit, Some(&cache)).unwrap();
+        assert_eq!(first.distance + 1, cached.distance);
+        assert_eq!(cached, Describe::new(&test.repo, &commit, None).unwrap());
+        test.assert_describes(head, Some(("v2.0", 3)));
+    }
+}
@@ -0,0 +1,1046 @@
+//! Checking if a repository has uncommitted changes.
+//!
+//! Getting the full status of a repository builds a list of every changed path, including every
+//! file inside of untracked directories. Since only a yes/no answer is needed, [`DirtyCheck`]
+//! instead stops as soon as it finds the first staged, modified or untracked path.
+//!
+//! How much of the working tree is checked can be tuned: untracked files can be left out, or
+//! only the top level of untracked directories looked at, for working trees with large untracked
+//! directories (see [`DirtyLevel`]), and submodules can be ignored or checked to different depths
+//! (see [`SubmoduleMode`]).
+//!
+//! The check can be limited to a subdirectory of the working tree (e.g. one module of a large
+//! repository), in which case only that subtree is walked.
+//!
+//! Comparing the stat data of every tracked file is bound by `lstat` calls, so for large working
+//! trees it can be split across threads: the index is read in batches on the calling thread, and
+//! a bounded pool of workers compares the batches against the working tree, stopping as soon as
+//! any of them finds a change. Entries whose stat data changed are still confirmed on the calling
+//! thread, since a [`Repository`] can't be shared between threads.
+
+use std::cell::Cell;
+use std::collections::{HashSet, VecDeque};
+use std::ffi::OsStr;
+use std::fs::{self, Metadata};
+use std::io;
+use std::path::{Path, PathBuf};
+use std::sync::atomic::{AtomicBool, Ordering};
+use std::sync::mpsc::{self, Receiver};
+use std::sync::Mutex;
+use std::thread;
+use std::time::{SystemTime, UNIX_EPOCH};
+
+use git2::{
+    DiffOptions, ErrorCode, Index, IndexEntry, IndexTime, ObjectType, Repository, Status,
+    StatusOptions, SubmoduleIgnore, SubmoduleStatus, Tree, TreeWalkMode, TreeWalkResult,
+};
+
+use crate::{Options, Result, ScanStats};
+
+const MODE_TYPE_MASK: u32 = 0o170000;
+const MODE_SYMLINK: u32 = 0o120000;
+const MODE_GITLINK: u32 = 0o160000;
+const MODE_EXECUTABLE: u32 = 0o100;
+
+const FLAG_STAGE_MASK: u16 = 0x3000;
+const FLAG_EXTENDED_INTENT_TO_ADD: u16 = 1 << 13;
+const FLAG_EXTENDED_SKIP_WORKTREE: u16 = 1 << 14;
+
+/// The number of index entries that are sent to a worker thread at once
+const BATCH_SIZE: usize = 1024;
+/// Below this many index entries in the scope, starting threads takes longer than comparing them
+const PARALLEL_THRESHOLD: usize = 8 * BATCH_SIZE;
+
+/// Which paths of the working tree are checked for changes. Changes staged in the index are always
+/// checked.
+#[derive(Debug, Clone, Copy, Default, PartialEq, Eq, Hash)]
+pub enum DirtyLevel {
+    /// Only tracked files, which only compares the stat data of the index against the working tree.
+    /// This is the default, since untracked files have never counted as uncommitted changes.
+    #[default]
+    Tracked,
+    /// Tracked files, and untracked paths in directories with tracked files. Untracked directories
+    /// are not searched: one that isn't ignored or empty counts, even if it only has ignored files.
+    TopLevelUntracked,
+    /// Tracked files, and every untracked file that isn't ignored, like `git status`
+    Full,
+}
+
+/// Which changes to submodules are counted as uncommitted changes. This overrides the
+/// `submodule.<name>.ignore` setting of the repository.
+#[derive(Debug, Clone, Copy, Default, PartialEq, Eq, Hash)]
+pub enum SubmoduleMode {
+    /// Submodules never have changes
+    #[default]
+    Ignore,
+    /// A submodule has changes if a different commit is checked out in it, or its tracked files
+    /// changed
+    Dirty,
+    /// A submodule has changes if [`SubmoduleMode::Dirty`] would say so, or it has untracked files
+    All,
+}
+
+impl SubmoduleMode {
+    /// Gets the libgit2 setting for which submodule changes to ignore.
+    fn ignore(self) -> SubmoduleIgnore {
+        match self {
+            SubmoduleMode::Ignore => SubmoduleIgnore::All,
+            SubmoduleMode::Dirty => SubmoduleIgnore::Untracked,
+            SubmoduleMode::All => SubmoduleIgnore::None,
+        }
+    }
+
+    /// Checks if the submodule at `path` has changes.
+    fn changed(self, repo: &Repository, path: &[u8]) -> Result<bool> {
+        if self == SubmoduleMode::Ignore {
+            return Ok(false);
+        }
+        // libgit2 looks submodules up by name or by path
+        let Ok(path) = std::str::from_utf8(path) else {
+            return Ok(true);
+        };
+        let status = repo.submodule_status(path, self.ignore())?;
+        // like git, a submodule that was never cloned has no changes
+        Ok(status.intersects(
+            SubmoduleStatus::INDEX_ADDED
+                | SubmoduleStatus::INDEX_DELETED
+                | SubmoduleStatus::INDEX_MODIFIED
+                | SubmoduleStatus::WD_ADDED
+                | SubmoduleStatus::WD_DELETED
+                | SubmoduleStatus::WD_MODIFIED
+                | SubmoduleStatus::WD_INDEX_MODIFIED
+                | SubmoduleStatus::WD_WD_MODIFIED
+                | SubmoduleStatus::WD_UNTRACKED,
+        ))
+    }
+}
+
+/// How to check if a repository has uncommitted changes.
+#[derive(Debug, Clone, Copy, Default, PartialEq, Eq, Hash)]
+pub struct DirtyCheck {
+    /// Which paths are checked
+    pub level: DirtyLevel,
+    /// Which changes to submodules are counted
+    pub submodules: SubmoduleMode,
+    /// Get the full status of the repository with libgit2, instead of stopping at the first
+    /// change. Even with [`DirtyLevel::TopLevelUntracked`], libgit2 searches untracked
+    /// directories to find out if they only have ignored files.
+    pub recurse_untracked_dirs: bool,
+    /// The number of threads that compare the index against the working tree; 0 or 1 compares
+    /// them on the calling thread. The result is the same no matter how many threads are used.
+    pub threads: usize,
+}
+
+impl DirtyCheck {
+    pub fn from_options(options: Options) -> DirtyCheck {
+        let level = if options.contains(Options::DIRTY_UNTRACKED) {
+            DirtyLevel::Full
+        } else if options.contains(Options::DIRTY_TOP_LEVEL_UNTRACKED) {
+            DirtyLevel::TopLevelUntracked
+        } else {
+            DirtyLevel::Tracked
+        };
+        let submodules = if options.contains(Options::DIRTY_SUBMODULES_UNTRACKED) {
+            SubmoduleMode::All
+        } else if options.contains(Options::DIRTY_SUBMODULES) {
+            SubmoduleMode::Dirty
+        } else {
+            SubmoduleMode::Ignore
+        };
+        DirtyCheck {
+            level,
+            submodules,
+            recurse_untracked_dirs: options.contains(Options::DIRTY_RECURSE_UNTRACKED),
+            threads: 0,
+        }
+    }
+
+    /// Checks if the repository has any uncommitted changes, ignoring ignored files.
+    pub fn is_dirty(&self, repo: &Repository) -> Result<bool> {
+        self.is_dirty_with_stats(repo, &mut ScanStats::default())
+    }
+
+    /// Checks if the repository has any uncommitted changes, ignoring ignored files, and records
+    /// how much of the repository was scanned in `stats`.
+    pub fn is_dirty_with_stats(&self, repo: &Repository, stats: &mut ScanStats) -> Result<bool> {
+        self.is_dirty_in(repo, "", stats)
+    }
+
+    /// Checks if a directory of the repository has any uncommitted changes, ignoring ignored
+    /// files, and records how much of the repository was scanned in `stats`.
+    ///
+    /// `scope` is relative to the root of the working tree and separated with `/`, like a
+    /// pathspec; an empty scope checks the whole repository.
+    pub fn is_dirty_in(
+        &self,
+        repo: &Repository,
+        scope: &str,
+        stats: &mut ScanStats,
+    ) -> Result<bool> {
+        let scope = scope.trim_matches('/');
+        let index = repo.index()?;
+        if self.recurse_untracked_dirs {
+            let mut options = StatusOptions::new();
+            options
+                .include_ignored(false)
+                .include_untracked(self.level != DirtyLevel::Tracked)
+                .recurse_untracked_dirs(self.level == DirtyLevel::Full)
+                // libgit2 can't override the ignore setting of submodules for a whole status
+                .exclude_submodules(true);
+            if !scope.is_empty() {
+                options.pathspec(scope).disable_pathspec_match(true);
+            }
+            // libgit2 compares every entry, but does not report how many directories it visited
+            stats.entries_scanned = index.len() as u64;
+            if !repo.statuses(Some(&mut options))?.is_empty() {
+                return Ok(true);
+            }
+            for entry in index.iter() {
+                if entry.mode & MODE_TYPE_MASK == MODE_GITLINK
+                    && in_scope(&entry.path, scope.as_bytes())
+                    && self.submodules.changed(repo, &entry.path)?
+                {
+                    return Ok(true);
+                }
+            }
+            return Ok(false);
+        }
+        if self.has_staged_changes(repo, &index, scope)? {
+            return Ok(true);
+        }
+        let Some(workdir) = repo.workdir() else {
+            // bare repositories have no working tree to change
+            return Ok(false);
+        };
+        let scan = WorkdirScan::new(repo, &index, workdir, scope.as_bytes(), *self)?;
+        let dirty = scan.has_tracked_changes()?
+            || (self.level != DirtyLevel::Tracked && scan.has_untracked_files()?);
+        stats.entries_scanned = scan.entries_scanned.get();
+        stats.dirs_visited = scan.dirs_visited.get();
+        stats.untracked_dirs_visited = scan.untracked_dirs_visited.get();
+        Ok(dirty)
+    }
+
+    /// Checks if the index has changes staged against `HEAD`. The tree of `HEAD` and the index are
+    /// both sorted by path, so they are walked side by side, stopping at the first difference
+    /// instead of building the full list of staged changes.
+    fn has_staged_changes(&self, repo: &Repository, index: &Index, scope: &str) -> Result<bool> {
+        let counted = |mode: u32| {
+            self.submodules != SubmoduleMode::Ignore || mode & MODE_TYPE_MASK != MODE_GITLINK
+        };
+        let mut entries = scoped_entries(index, scope.as_bytes())
+            .filter(|entry| counted(entry.mode))
+            .peekable();
+        let scope_path = Path::new(scope);
+        let scope_entry = || index.get_path(scope_path, 0).filter(|entry| counted(entry.mode));
+        // an unborn HEAD is compared against the empty tree
+        let Some(head) = repo.head().ok().and_then(|head| head.peel_to_tree().ok()) else {
+            return Ok(entries.peek().is_some() || (!scope.is_empty() && scope_entry().is_some()));
+        };
+        let mut tree = head.clone();
+        let mut prefix = Vec::new();
+        if !scope.is_empty() {
+            match tree.get_path(scope_path) {
+                Ok(entry) if entry.kind() == Some(ObjectType::Tree) => {
+                    tree = entry.to_object(repo)?.peel_to_tree()?;
+                    prefix.extend_from_slice(scope.as_bytes());
+                    prefix.push(b'/');
+                }
+                // the scope is a file or a submodule
+                Ok(entry) if !counted(entry.filemode() as u32) => return Ok(false),
+                Ok(entry) => {
+                    return Ok(!scope_entry().is_some_and(|index_entry| {
+                        index_entry.mode == entry.filemode() as u32 && index_entry.id == entry.id()
+                    }));
+                }
+                Err(err) if err.code() == ErrorCode::NotFound => {
+                    return Ok(entries.peek().is_some() || scope_entry().is_some());
+                }
+                Err(err) => return Err(err.into()),
+            }
+        }
+        let mut changed = false;
+        let walked = tree.walk(TreeWalkMode::PreOrder, |root, entry| {
+            let mode = entry.filemode() as u32;
+            if entry.kind() == Some(ObjectType::Tree) || !counted(mode) {
+                return TreeWalkResult::Ok;
+            }
+            let path = [&prefix, root.as_bytes(), entry.name_bytes()].concat();
+            // conflicts have no stage 0 entry, so they never match the tree
+            let matches = entries.next().is_some_and(|index_entry| {
+                index_entry.flags & FLAG_STAGE_MASK == 0
+                    && index_entry.path == path
+                    && index_entry.mode == mode
+                    && index_entry.id == entry.id()
+            });
+            if matches {
+                TreeWalkResult::Ok
+            } else {
+                changed = true;
+                TreeWalkResult::Abort
+            }
+        });
+        if changed {
+            return Ok(true);
+        }
+        if walked.is_err() {
+            // paths that aren't UTF-8 can't be walked, so let libgit2 compare them
+            return self.has_staged_deltas(repo, &head, index, scope);
+        }
+        // entries that are only in the index were added
+        Ok(entries.next().is_some())
+    }
+
+    fn has_staged_deltas(
+        &self,
+        repo: &Repository,
+        head: &Tree,
+        index: &Index,
+        scope: &str,
+    ) -> Result<bool> {
+        let mut options = DiffOptions::new();
+        options.ignore_submodules(self.submodules == SubmoduleMode::Ignore);
+        if !scope.is_empty() {
+            options.pathspec(scope).disable_pathspec_match(true);
+        }
+        let diff = repo.diff_tree_to_index(Some(head), Some(index), Some(&mut options))?;
+        Ok(diff.deltas().len() != 0)
+    }
+}
+
+/// What the stat data of an index entry says about whether it changed.
+#[derive(Debug, Clone, Copy, PartialEq, Eq)]
+enum EntryState {
+    Unchanged,
+    Changed,
+    /// The stat data changed (or can't be trusted), but the contents may not have
+    Unsure,
+}
+
+/// Compares index entries against the stat data of the working tree. Unlike [`WorkdirScan`], this
+/// doesn't need the repository, so it can be shared between threads.
+struct StatCheck<'a> {
+    workdir: &'a Path,
+    submodules: bool,
+    #[cfg_attr(not(unix), allow(dead_code))]
+    trust_filemode: bool,
+    /// Entries modified in the same second as (or after) the index are "racily clean"; their stat
+    /// data can't be trusted, so their content has to be checked.
+    index_mtime: i64,
+}
+
+impl StatCheck<'_> {
+    fn check(&self, entry: &IndexEntry) -> EntryState {
+        // conflicts and intent-to-add entries are always changes
+        if entry.flags & FLAG_STAGE_MASK != 0
+            || entry.flags_extended & FLAG_EXTENDED_INTENT_TO_ADD != 0
+        {
+            return EntryState::Changed;
+        }
+        if entry.flags_extended & FLAG_EXTENDED_SKIP_WORKTREE != 0 {
+            return EntryState::Unchanged;
+        }
+        if entry.mode & MODE_TYPE_MASK == MODE_GITLINK {
+            return if self.submodules {
+                EntryState::Unsure
+            } else {
+                EntryState::Unchanged
+            };
+        }
+        let Some(path) = bytes_to_path(&entry.path) else {
+            return EntryState::Changed;
+        };
+        match fs::symlink_metadata(self.workdir.join(path)) {
+            Ok(metadata) if self.stat_matches(entry, &metadata) => EntryState::Unchanged,
+            Ok(_) => EntryState::Unsure,
+            Err(err) if err.kind() == io::ErrorKind::NotFound => EntryState::Changed,
+            Err(_) => EntryState::Unsure,
+        }
+    }
+
+    fn stat_matches(&self, entry: &IndexEntry, metadata: &Metadata) -> bool {
+        let file_type = metadata.file_type();
+        let type_matches = if entry.mode & MODE_TYPE_MASK == MODE_SYMLINK {
+            file_type.is_symlink()
+        } else {
+            file_type.is_file()
+        };
+        if !type_matches || metadata.len() as u32 != entry.file_size {
+            return false;
+        }
+        let Some(modified) = metadata.modified().ok().and_then(unix_time) else {
+            return false;
+        };
+        if !time_matches(entry.mtime, modified) {
+            return false;
+        }
+        if i64::from(entry.mtime.seconds()) >= self.index_mtime {
+            return false;
+        }
+        #[cfg(unix)]
+        {
+            use std::os::unix::fs::MetadataExt;
+
+            if !time_matches(entry.ctime, (metadata.ctime(), metadata.ctime_nsec() as u32)) {
+                return false;
+            }
+            if self.trust_filemode
+                && file_type.is_file()
+                && (entry.mode & MODE_EXECUTABLE != 0) != (metadata.mode() & MODE_EXECUTABLE != 0)
+            {
+                return false;
+            }
+        }
+        true
+    }
+
+    /// Checks batches of entries until the sender hangs up, returning the number of entries
+    /// checked and the entries that need to be confirmed. Once any worker finds a change, the
+    /// remaining batches are drained without being checked, so the sender never blocks.
+    fn check_batches(
+        &self,
+        batches: &Mutex<Receiver<Vec<IndexEntry>>>,
+        changed: &AtomicBool,
+    ) -> (u64, Vec<IndexEntry>) {
+        let mut checked = 0;
+        let mut unsure = Vec::new();
+        loop {
+            // the lock is only held while waiting for the next batch
+            let batch = match batches.lock() {
+                Ok(receiver) => receiver.recv(),
+                Err(poisoned) => poisoned.into_inner().recv(),
+            };
+            let Ok(batch) = batch else {
+                break;
+            };
+            for entry in batch {
+                if changed.load(Ordering::Relaxed) {
+                    break;
+                }
+                checked += 1;
+                match self.check(&entry) {
+                    EntryState::Unchanged => {}
+                    EntryState::Changed => changed.store(true, Ordering::Relaxed),
+                    EntryState::Unsure => unsure.push(entry),
+                }
+            }
+        }
+        (checked, unsure)
+    }
+}
+
+/// A scan of the working tree against the stat data recorded in the index.
+struct WorkdirScan<'a> {
+    repo: &'a Repository,
+    index: &'a Index,
+    workdir: &'a Path,
+    /// The directory to check, without a trailing `/`; empty for the whole working tree
+    scope: &'a [u8],
+    threads: usize,
+    level: DirtyLevel,
+    submodules: SubmoduleMode,
+    stat: StatCheck<'a>,
+    entries_scanned: Cell<u64>,
+    dirs_visited: Cell<u64>,
+    untracked_dirs_visited: Cell<u64>,
+}
+
+impl<'a> WorkdirScan<'a> {
+    fn new(
+        repo: &'a Repository,
+        index: &'a Index,
+        workdir: &'a Path,
+        scope: &'a [u8],
+        check: DirtyCheck,
+    ) -> Result<WorkdirScan<'a>> {
+        let trust_filemode = repo.config()?.get_bool("core.filemode").unwrap_or(true);
+        let index_mtime = index
+            .path()
+            .and_then(|path| fs::metadata(path).ok())
+            .and_then(|metadata| metadata.modified().ok())
+            .and_then(unix_time)
+            .map_or(i64::MIN, |(seconds, _)| seconds);
+        Ok(WorkdirScan {
+            repo,
+            index,
+            workdir,
+            scope,
+            threads: check.threads,
+            level: check.level,
+            submodules: check.submodules,
+            stat: StatCheck {
+                workdir,
+                submodules: check.submodules != SubmoduleMode::Ignore,
+                trust_filemode,
+                index_mtime,
+            },
+            entries_scanned: Cell::new(0),
+            dirs_visited: Cell::new(0),
+            untracked_dirs_visited: Cell::new(0),
+        })
+    }
+
+    /// Gets the index entry of the scope itself, if it is a tracked file or a submodule.
+    fn scope_entry(&self) -> Option<IndexEntry> {
+        if self.scope.is_empty() {
+            return None;
+        }
+        self.index.get_path(bytes_to_path(self.scope)?, 0)
+    }
+
+    fn scoped_entries(&self) -> impl Iterator<Item = IndexEntry> + '_ {
+        scoped_entries(self.index, self.scope)
+    }
+
+    fn has_tracked_changes(&self) -> Result<bool> {
+        if let Some(entry) = self.scope_entry() {
+            self.entries_scanned.set(1);
+            return self.entry_changed(&entry);
+        }
+        // only the entries in the scope are compared, and counting stops at the threshold
+        if self.threads > 1
+            && self.scoped_entries().take(PARALLEL_THRESHOLD).count() == PARALLEL_THRESHOLD
+        {
+            return self.has_tracked_changes_parallel();
+        }
+        for entry in self.scoped_entries() {
+            self.entries_scanned.set(self.entries_scanned.get() + 1);
+            if self.entry_changed(&entry)? {
+                return Ok(true);
+            }
+        }
+        Ok(false)
+    }
+
+    fn has_tracked_changes_parallel(&self) -> Result<bool> {
+        let changed = AtomicBool::new(false);
+        // at most two batches per worker are waiting, so memory use doesn't grow with the index
+        let (sender, receiver) = mpsc::sync_channel(self.threads * 2);
+        let receiver = Mutex::new(receiver);
+        let (stat, batches, found) = (&self.stat, &receiver, &changed);
+        let workers = thread::scope(|scope| {
+            let workers: Vec<_> = (0..self.threads)
+                .map(|_| scope.spawn(move || stat.check_batches(batches, found)))
+                .collect();
+            let mut batch = Vec::with_capacity(BATCH_SIZE);
+            for entry in self.scoped_entries() {
+                if found.load(Ordering::Relaxed) {
+                    break;
+                }
+                batch.push(entry);
+                if batch.len() == BATCH_SIZE {
+                    let full = std::mem::replace(&mut batch, Vec::with_capacity(BATCH_SIZE));
+                    if sender.send(full).is_err() {
+                        break;
+                    }
+                }
+            }
+            if !batch.is_empty() {
+                let _ = sender.send(batch);
+            }
+            drop(sender);
+            workers
+                .into_iter()
+                .map(|worker| worker.join())
+                .collect::<Vec<_>>()
+        });
+        let mut unsure = Vec::new();
+        for worker in workers {
+            let (checked, entries) =
+                worker.map_err(|_| "A thread checking the working tree panicked!")?;
+            self.entries_scanned.set(self.entries_scanned.get() + checked);
+            unsure.extend(entries);
+        }
+        if changed.into_inner() {
+            return Ok(true);
+        }
+        // same order as the single-threaded scan
+        unsure.sort_unstable_by(|a, b| a.path.cmp(&b.path));
+        for entry in unsure {
+            if self.confirm(&entry)? {
+                return Ok(true);
+            }
+        }
+        Ok(false)
+    }
+
+    fn entry_changed(&self, entry: &IndexEntry) -> Result<bool> {
+        match self.stat.check(entry) {
+            EntryState::Unchanged => Ok(false),
+            EntryState::Changed => Ok(true),
+            EntryState::Unsure => self.confirm(entry),
+        }
+    }
+
+    /// Confirms that an entry whose stat data changed actually has changes, by asking libgit2 for
+    /// the status of just that path.
+    fn confirm(&self, entry: &IndexEntry) -> Result<bool> {
+        if entry.mode & MODE_TYPE_MASK == MODE_GITLINK {
+            return self.submodules.changed(self.repo, &entry.path);
+        }
+        let Some(path) = bytes_to_path(&entry.path) else {
+            return Ok(true);
+        };
+        let status = self.repo.status_file(path)?;
+        Ok(!status.is_empty() && !status.contains(Status::IGNORED))
+    }
+
+    fn has_untracked_files(&self) -> Result<bool> {
+        // directories that contain tracked files; everything else is either untracked or ignored
+        let mut tracked_dirs: HashSet<Vec<u8>> = HashSet::new();
+        for entry in self.scoped_entries() {
+            let mut path = entry.path.as_slice();
+            while let Some(slash) = path.iter().rposition(|&byte| byte == b'/') {
+                path = &path[..slash];
+                if !tracked_dirs.insert(path.to_vec()) {
+                    break;
+                }
+            }
+        }
+
+        if !self.scope.is_empty() && !tracked_dirs.contains(self.scope) {
+            // the scope is a tracked file or submodule, or doesn't have any tracked files in it
+            if self.scope_entry().is_some() {
+                return Ok(false);
+            }
+            let Some(scope) = bytes_to_path(self.scope) else {
+                return Ok(true);
+            };
+            return match fs::symlink_metadata(self.workdir.join(scope)) {
+                Ok(metadata) if metadata.is_dir() => self.untracked_dir_has_files(scope),
+                Ok(_) => Ok(!self.repo.is_path_ignored(scope)?),
+                Err(err) if err.kind() == io::ErrorKind::NotFound => Ok(false),
+                Err(err) => Err(err.into()),
+            };
+        }
+        let mut queue = VecDeque::from([self.scope.to_vec()]);
+        while let Some(dir) = queue.pop_front() {
+            self.dirs_visited.set(self.dirs_visited.get() + 1);
+            let Some(dir_path) = bytes_to_path(&dir) else {
+                return Ok(true);
+            };
+            let read_dir = match fs::read_dir(self.workdir.join(dir_path)) {
+                Ok(read_dir) => read_dir,
+                // deleted directories were already found by the tracked scan
+                Err(err) if err.kind() == io::ErrorKind::NotFound => continue,
+                Err(err) => return Err(err.into()),
+            };
+            for dir_entry in read_dir {
+                let dir_entry = dir_entry?;
+                let name = dir_entry.file_name();
+                if name == ".git" {
+                    continue;
+                }
+                let Some(name) = os_str_bytes(&name) else {
+                    return Ok(true);
+                };
+                let mut rel_path = dir.clone();
+                if !rel_path.is_empty() {
+                    rel_path.push(b'/');
+                }
+                rel_path.extend_from_slice(name);
+                let Some(path) = bytes_to_path(&rel_path) else {
+                    return Ok(true);
+                };
+                // tracked files and submodules
+                if self.index.get_path(path, 0).is_some() {
+                    continue;
+                }
+                if dir_entry.file_type()?.is_dir() {
+                    if tracked_dirs.contains(&rel_path) {
+                        queue.push_back(rel_path);
+                    } else if self.untracked_dir_has_files(path)? {
+                        return Ok(true);
+                    }
+                } else if !self.repo.is_path_ignored(path)? {
+                    return Ok(true);
+                }
+            }
+        }
+        Ok(false)
+    }
+
+    /// Checks if an untracked directory has any files that aren't ignored. Like git, empty
+    /// directories and directories with only ignored files don't count as untracked, unless only
+    /// the top level is checked (see [`DirtyLevel::TopLevelUntracked`]).
+    fn untracked_dir_has_files(&self, dir: &Path) -> Result<bool> {
+        let mut stack = vec![dir.to_path_buf()];
+        while let Some(dir) = stack.pop() {
+            if self.repo.is_path_ignored(dir_pattern(&dir))? {
+                continue;
+            }
+            self.untracked_dirs_visited
+                .set(self.untracked_dirs_visited.get() + 1);
+            let mut read_dir = fs::read_dir(self.workdir.join(&dir))?;
+            if self.level == DirtyLevel::TopLevelUntracked {
+                return Ok(read_dir.next().is_some());
+            }
+            for dir_entry in read_dir {
+                let dir_entry = dir_entry?;
+                let path = dir.join(dir_entry.file_name());
+                if dir_entry.file_type()?.is_dir() {
+                    stack.push(path);
+                } else if !self.repo.is_path_ignored(&path)? {
+                    return Ok(true);
+                }
+            }
+        }
+        Ok(false)
+    }
+}
+
+/// Gets the index entries inside of a directory. The index is sorted by path, so the entries in a
+/// directory are next to each other, and only those entries are read.
+fn scoped_entries<'a>(index: &'a Index, scope: &'a [u8]) -> impl Iterator<Item = IndexEntry> + 'a {
+    let start = if scope.is_empty() {
+        0
+    } else {
+        let mut scope_dir = scope.to_vec();
+        scope_dir.push(b'/');
+        index.find_prefix(scope_dir).unwrap_or(index.len())
+    };
+    (start..index.len())
+        .map_while(move |position| index.get(position))
+        .take_while(move |entry| in_scope(&entry.path, scope))
+}
+
+/// Checks if an index path is the scope, or inside of it.
+fn in_scope(path: &[u8], scope: &[u8]) -> bool {
+    scope.is_empty()
+        || (path.starts_with(scope) && matches!(path.get(scope.len()), None | Some(b'/')))
+}
+
+/// Gets the path to test directory ignore rules against (i.e. with a trailing slash).
+fn dir_pattern(dir: &Path) -> PathBuf {
+    let mut pattern = dir.as_os_str().to_owned();
+    pattern.push("/");
+    PathBuf::from(pattern)
+}
+
+fn time_matches(index_time: IndexTime, (seconds, nanoseconds): (i64, u32)) -> bool {
+    // the index only stores the lower 32 bits of the seconds, and may not store nanoseconds
+    index_time.seconds() as u32 == seconds as u32
+        && (index_time.nanoseconds() == 0 || index_time.nanoseconds() == nanoseconds)
+}
+
+pub(crate) fn unix_time(time: SystemTime) -> Option<(i64, u32)> {
+    let duration = time.duration_since(UNIX_EPOCH).ok()?;
+    Some((duration.as_secs() as i64, duration.subsec_nanos()))
+}
+
+#[cfg(unix)]
+pub(crate) fn bytes_to_path(bytes: &[u8]) -> Option<&Path> {
+    use std::os::unix::ffi::OsStrExt;
+
+    Some(Path::new(OsStr::from_bytes(bytes)))
+}
+
+#[cfg(not(unix))]
+pub(crate) fn bytes_to_path(bytes: &[u8]) -> Option<&Path> {
+    std::str::from_utf8(bytes).ok().map(Path::new)
+}
+
+#[cfg(unix)]
+fn os_str_bytes(string: &OsStr) -> Option<&[u8]> {
+    use std::os::unix::ffi::OsStrExt;
+
+    Some(string.as_bytes())
+}
+
+#[cfg(not(unix))]
+fn os_str_bytes(string: &OsStr) -> Option<&[u8]> {
+    string.to_str().map(str::as_bytes)
+}
+
+#[cfg(test)]
+mod tests {
+    use std::fs::File;
+    use std::sync::atomic::AtomicUsize;
+    use std::time::Duration;
+
+    use git2::{IndexAddOption, Signature};
+
+    use super::*;
+
+    /// A repository in a temporary directory, which is deleted when it is dropped.
+    struct TestRepo {
+        dir: PathBuf,
+        repo: Repository,
+    }
+
+    impl TestRepo {
+        fn new() -> TestRepo {
+            static COUNT: AtomicUsize = AtomicUsize::new(0);
+            let dir = std::env::temp_dir().join(format!(
+                "git_details_dirty_{}_{}",
+                std::process::id(),
+                COUNT.fetch_add(1, Ordering::Relaxed)
+            ));
+            let _ = fs::remove_dir_all(&dir);
+            fs::create_dir_all(&dir).unwrap();
+            let repo = Repository::init(&dir).unwrap();
+            TestRepo { dir, repo }
+        }
+
+        fn write(&self, path: impl AsRef<Path>, contents: &str) {
+            let path = self.dir.join(path);
+            fs::create_dir_all(path.parent().unwrap()).unwrap();
+            fs::write(path, contents).unwrap();
+        }
+
+        fn set_modified(&self, path: impl AsRef<Path>, time: SystemTime) {
+            let file = File::options()
+                .write(true)
+                .open(self.dir.join(path))
+                .unwrap();
+            file.set_modified(time).unwrap();
+        }
+
+        fn stage(&self, path: impl AsRef<Path>) {
+            let mut index = self.repo.index().unwrap();
+            index.add_path(path.as_ref()).unwrap();
+            index.write().unwrap();
+        }
+
+        /// Commits every file that isn't ignored.
+        fn commit_all(&self) {
+            let mut index = self.repo.index().unwrap();
+            index.add_all(["*"], IndexAddOption::DEFAULT, None).unwrap();
+            index.write().unwrap();
+            let tree = self.repo.find_tree(index.write_tree().unwrap()).unwrap();
+            let signature = Signature::now("Test", "test@example.com").unwrap();
+            let head = self.repo.head().ok();
+            let parent = head.map(|head| head.peel_to_commit().unwrap());
+            let parents: Vec<_> = parent.iter().collect();
+            self.repo
+                .commit(Some("HEAD"), &signature, &signature, "commit", &tree, &parents)
+                .unwrap();
+        }
+
+        /// Moves the modification times of the tracked files into the past and records them in the
+        /// index, so that their stat data can be trusted instead of them being racily clean.
+        fn settle(&self) {
+            let past = SystemTime::now() - Duration::from_secs(10);
+            let mut index = self.repo.index().unwrap();
+            let paths: Vec<_> = index.iter().map(|entry| entry.path).collect();
+            for path in &paths {
+                let path = bytes_to_path(path).unwrap();
+                self.set_modified(path, past);
+                index.add_path(path).unwrap();
+            }
+            index.write().unwrap();
+        }
+    }
+
+    impl Drop for TestRepo {
+        fn drop(&mut self) {
+            let _ = fs::remove_dir_all(&self.dir);
+        }
+    }
+
+    /// Checks if libgit2 finds changes at a level, with the options the dirty check used to use.
+    fn status_dirty(repo: &Repository, level: DirtyLevel) -> bool {
+        let mut options = StatusOptions::new();
+        options
+            .include_ignored(false)
+            .include_untracked(level != DirtyLevel::Tracked)
+            .recurse_untracked_dirs(level == DirtyLevel::Full)
+            .exclude_submodules(true);
+        !repo.statuses(Some(&mut options)).unwrap().is_empty()
+    }
+
+    /// Checks that libgit2 and the dirty check (on one thread and on several) agree with the
+    /// expected results, when only tracked files are checked and when untracked files count too.
+    fn assert_dirty(test: &TestRepo, tracked: bool, full: bool) {
+        for (level, expected) in [(DirtyLevel::Tracked, tracked), (DirtyLevel::Full, full)] {
+            assert_eq!(status_dirty(&test.repo, level), expected, "libgit2 at {level:?}");
+            for threads in [0, 4] {
+                let check = DirtyCheck {
+                    level,
+                    threads,
+                    ..DirtyCheck::default()
+                };
+                assert_eq!(
+                    check.is_dirty(&test.repo).unwrap(),
+                    expected,
+                    "{level:?} with {threads} threads"
+                );
+            }
+        }
+    }
+
+    #[test]
+    fn default_only_checks_tracked_files() {
+        assert_eq!(DirtyCheck::default().level, DirtyLevel::Tracked);
+        assert_eq!(
+            DirtyCheck::from_options(Options::empty()).level,
+            DirtyLevel::Tracked
+        );
+        assert_eq!(
+            DirtyCheck::from_options(Options::DIRTY_UNTRACKED).level,
+            DirtyLevel::Full
+        );
+    }
+
+    #[test]
+    fn clean() {
+        let test = TestRepo::new();
+        test.write("src/main.rs", "fn main() {}\n");
+        test.commit_all();
+        test.settle();
+        assert_dirty(&test, false, false);
+    }
+
+    #[test]
+    fn staged_only() {
+        let test = TestRepo::new();
+        test.write("file.txt", "one\n");
+        test.commit_all();
+        test.settle();
+        test.write("file.txt", "two\n");
+        test.stage("file.txt");
+        assert_dirty(&test, true, true);
+    }
+
+    #[test]
+    fn staged_new_file() {
+        let test = TestRepo::new();
+        test.write("file.txt", "one\n");
+        test.commit_all();
+        test.settle();
+        test.write("new.txt", "new\n");
+        test.stage("new.txt");
+        assert_dirty(&test, true, true);
+    }
+
+    #[test]
+    fn modified() {
+        let test = TestRepo::new();
+        test.write("file.txt", "one\n");
+        test.commit_all();
+        test.settle();
+        test.write("file.txt", "changed\n");
+        assert_dirty(&test, true, true);
+    }
+
+    #[test]
+    fn touched_without_changes() {
+        let test = TestRepo::new();
+        test.write("file.txt", "one\n");
+        test.commit_all();
+        test.settle();
+        test.set_modified("file.txt", SystemTime::now());
+        assert_dirty(&test, false, false);
+    }
+
+    #[test]
+    fn deleted() {
+        let test = TestRepo::new();
+        test.write("dir/file.txt", "one\n");
+        test.write("other.txt", "two\n");
+        test.commit_all();
+        test.settle();
+        fs::remove_dir_all(test.dir.join("dir")).unwrap();
+        assert_dirty(&test, true, true);
+    }
+
+    #[test]
+    fn racily_clean() {
+        let test = TestRepo::new();
+        test.write("file.txt", "aaaa\n");
+        test.commit_all();
+        // make the index as old as the file, so its stat data can't be trusted
+        let modified = fs::metadata(test.dir.join("file.txt"))
+            .unwrap()
+            .modified()
+            .unwrap();
+        test.set_modified(".git/index", modified);
+        assert_dirty(&test, false, false);
+
+        // a change of the same size, with the same modification time
+        test.write("file.txt", "bbbb\n");
+        test.set_modified("file.txt", modified);
+        assert_dirty(&test, true, true);
+    }
+
+    #[test]
+    fn untracked() {
+        let test = TestRepo::new();
+        test.write("file.txt", "one\n");
+        test.commit_all();
+        test.settle();
+        test.write("untracked.txt", "new\n");
+        assert_dirty(&test, false, true);
+    }
+
+    #[test]
+    fn ignored() {
+        let test = TestRepo::new();
+        test.write(".gitignore", "*.log\nbuild/\n");
+        test.commit_all();
+        test.settle();
+        test.write("debug.log", "ignored\n");
+        test.write("build/output/file.txt", "ignored\n");
+        assert_dirty(&test, false, false);
+    }
+
+    #[test]
+    fn nested_untracked_directories() {
+        let test = TestRepo::new();
+        test.write(".gitignore", "*.log\n");
+        test.write("src/main.rs", "fn main() {}\n");
+        test.commit_all();
+        test.settle();
+        // a directory with only ignored files doesn't count
+        test.write("logs/a/b/debug.log", "ignored\n");
+        assert_dirty(&test, false, false);
+
+        test.write("src/a/b/c/new.rs", "new\n");
+        assert_dirty(&test, false, true);
+        let top_level = DirtyCheck {
+            level: DirtyLevel::TopLevelUntracked,
+            ..DirtyCheck::default()
+        };
+        assert!(top_level.is_dirty(&test.repo).unwrap());
+    }
+
+    // macOS and Windows don't allow file names that aren't UTF-8
+    #[cfg(target_os = "linux")]
+    #[test]
+    fn non_utf8_paths() {
+        use std::os::unix::ffi::OsStrExt;
+
+        let test = TestRepo::new();
+        let dir = Path::new(OsStr::from_bytes(b"caf\xe9"));
+        test.write(dir.join("file.txt"), "one\n");
+        test.commit_all();
+        test.settle();
+        assert_dirty(&test, false, false);
+
+        test.write(Path::new(OsStr::from_bytes(b"na\xefve.txt")), "new\n");
+        assert_dirty(&test, false, true);
+
+        // the tree can't be walked by path, so the staged check falls back to a diff
+        fs::remove_file(test.dir.join(OsStr::from_bytes(b"na\xefve.txt"))).unwrap();
+        test.write(dir.join("file.txt"), "two\n");
+        test.stage(dir.join("file.txt"));
+        assert_dirty(&test, true, true);
+    }
+
+    #[test]
+    fn parallel_matches_sequential() {
+        let test = TestRepo::new();
+        for i in 0..PARALLEL_THRESHOLD + BATCH_SIZE {
+            test.write(format!("files/{i:05}.txt"), &format!("file {i}\n"));
+        }
+        test.commit_all();
+        test.settle();
+        assert_dirty(&test, false, false);
+
+        // past the first batch, so the workers have to find it
+        test.write("files/05000.txt", "changed\n");
+        assert_dirty(&test, true, true);
+        fs::remove_file(test.dir.join("files/05000.txt")).unwrap();
+        assert_dirty(&test, true, true);
+    }
+}
@@ -0,0 +1,262 @@
+//! A fingerprint of the uncommitted changes of a repository, so that builds of the same
+//! uncommitted patch can share outputs.
+//!
+//! The fingerprint is a hash over every changed path, with the blob staged in the index and the
+//! hash of the file in the working tree (untracked files included). libgit2 uses the stat data in
+//! the index to find the changed paths, so unchanged files are never read. Files are hashed like
+//! `git hash-object`, after clean filters and line ending conversion, so a file that only differs
+//! from the index in its line endings hashes to the staged blob. The hashes of changed files are
+//! kept in a small cache file, keyed by the size and modification time of the file, so a later
+//! scan only hashes the files that changed again since.
+
+use std::collections::HashMap;
+use std::fmt::Write as _;
+use std::fs;
+use std::path::Path;
+use std::time::{Duration, SystemTime};
+
+use git2::{
+    Delta, DiffFile, FileMode, Mempack, ObjectType, Oid, Repository, StatusEntry, StatusOptions,
+};
+
+use crate::dirty::{bytes_to_path, unix_time};
+use crate::{DirtyCheck, DirtyLevel, Result, SubmoduleMode};
+
+/// The name of the cache file in the cache directory of a scan (see [`crate::ScanConfig`])
+pub const CACHE_FILE: &str = "dirty-fingerprint-cache";
+const CACHE_HEADER: &str = "git_details fingerprint cache v2";
+/// Higher than the loose and pack backends of libgit2 (1 and 2), so hashed blobs are written to
+/// memory instead of the object database
+const MEMPACK_PRIORITY: i32 = 1000;
+/// Files modified this recently may still be changing within the resolution of the file system's
+/// timestamps, so their hashes are not cached
+const RACY_WINDOW: Duration = Duration::from_secs(2);
+
+/// Fingerprints the uncommitted changes in `scope` (see [`crate::DirtyCheck::is_dirty_in`]).
+/// The same paths as `check` are included; an untracked directory that isn't searched is included
+/// as just its path.
+///
+/// Returns `None` if there are no uncommitted changes. `cache` is the file that the hashes of
+/// changed files are kept in between scans, if any; failing to read or write it only makes the
+/// scan slower.
+pub fn dirty_fingerprint(
+    repo: &Repository,
+    scope: &str,
+    check: &DirtyCheck,
+    cache: Option<&Path>,
+) -> Result<Option<String>> {
+    let scope = scope.trim_matches('/');
+    let mut options = StatusOptions::new();
+    options
+        .include_untracked(check.level != DirtyLevel::Tracked)
+        .recurse_untracked_dirs(check.level == DirtyLevel::Full)
+        .include_ignored(false)
+        .exclude_submodules(check.submodules == SubmoduleMode::Ignore);
+    if !scope.is_empty() {
+        options.pathspec(scope).disable_pathspec_match(true);
+    }
+    let statuses = repo.statuses(Some(&mut options))?;
+    if statuses.is_empty() {
+        return Ok(None);
+    }
+    let workdir = repo.workdir();
+    let odb = repo.odb()?;
+    let blobs = odb.add_new_mempack_backend(MEMPACK_PRIORITY)?;
+
+    let mut hashes = HashCache::read(cache);
+    // statuses are sorted by path, so the fingerprint doesn't depend on the order files are found
+    let mut changes = String::new();
+    for entry in statuses.iter() {
+        let path = String::from_utf8_lossy(entry.path_bytes());
+        let (index_id, index_mode) = index_side(&entry);
+        let (workdir_id, workdir_mode) = match entry.index_to_workdir() {
+            Some(delta) if delta.status() == Delta::Deleted => (None, FileMode::Unreadable),
+            Some(delta) => {
+                let file = delta.new_file();
+                let id = match workdir {
+                    Some(workdir) => hashes.hash(repo, &blobs, workdir, entry.path_bytes(), &file)?,
+                    None => None,
+                };
+                (id, file.mode())
+            }
+            // the working tree matches the index
+            None => (index_id, index_mode),
+        };
+        writeln!(
+            changes,
+            "{path}\0{} {:o} {} {:o}",
+            id_string(index_id),
+            u32::from(index_mode),
+            id_string(workdir_id),
+            u32::from(workdir_mode),
+        )?;
+    }
+    if let Some(cache) = cache {
+        let _ = hashes.write(cache);
+    }
+    Ok(Some(
+        Oid::hash_object(ObjectType::Blob, changes.as_bytes())?.to_string(),
+    ))
+}
+
+/// Gets the blob and mode of a path in the index, if it is in the index.
+fn index_side(entry: &StatusEntry) -> (Option<Oid>, FileMode) {
+    if let Some(delta) = entry.head_to_index() {
+        if delta.status() == Delta::Deleted {
+            return (None, FileMode::Unreadable);
+        }
+        return (Some(delta.new_file().id()), delta.new_file().mode());
+    }
+    match entry.index_to_workdir() {
+        Some(delta) if delta.status() != Delta::Untracked => {
+            (Some(delta.old_file().id()), delta.old_file().mode())
+        }
+        _ => (None, FileMode::Unreadable),
+    }
+}
+
+fn id_string(id: Option<Oid>) -> String {
+    id.filter(|id| !id.is_zero())
+        .map_or_else(|| "-".to_string(), |id| id.to_string())
+}
+
+/// The stat data of a file when it was hashed.
+#[derive(Debug, Clone, Copy, PartialEq, Eq)]
+struct Stamp {
+    size: u64,
+    modified: (i64, u32),
+}
+
+/// The hashes of the files in the working tree that were changed in recent scans.
+struct HashCache {
+    entries: HashMap<Vec<u8>, (Stamp, Oid)>,
+    /// The entries that were used by this scan, which are the only ones written back
+    used: HashMap<Vec<u8>, (Stamp, Oid)>,
+    started: SystemTime,
+}
+
+impl HashCache {
+    fn read(path: Option<&Path>) -> HashCache {
+        let mut cache = HashCache {
+            entries: HashMap::new(),
+            used: HashMap::new(),
+            started: SystemTime::now(),
+        };
+        let Some(contents) = path.and_then(|path| fs::read_to_string(path).ok()) else {
+            return cache;
+        };
+        let mut lines = contents.lines();
+        if lines.next() != Some(CACHE_HEADER) {
+            return cache;
+        }
+        for line in lines {
+            let mut fields = line.splitn(5, ' ');
+            let (Some(id), Some(size), Some(seconds), Some(nanoseconds), Some(path)) = (
+                fields.next(),
+                fields.next(),
+                fields.next(),
+                fields.next(),
+                fields.next(),
+            ) else {
+                continue;
+            };
+            let (Ok(id), Ok(size), Ok(seconds), Ok(nanoseconds)) = (
+                Oid::from_str(id),
+                size.parse(),
+                seconds.parse(),
+                nanoseconds.parse(),
+            ) else {
+                continue;
+            };
+            let stamp = Stamp {
+                size,
+                modified: (seconds, nanoseconds),
+            };
+            cache.entries.insert(path.as_bytes().to_vec(), (stamp, id));
+        }
+        cache
+    }
+
+    /// Hashes a file in the working tree like `git hash-object`, unless it was already hashed
+    /// since it was last modified. Returns `None` for directories (i.e. submodules), which are
+    /// identified by the commit that libgit2 found for them.
+    ///
+    /// libgit2 only applies filters when a blob is created, so the blob is created in `blobs`,
+    /// which is emptied again afterwards, rather than in the object database.
+    fn hash(
+        &mut self,
+        repo: &Repository,
+        blobs: &Mempack,
+        workdir: &Path,
+        path: &[u8],
+        file: &DiffFile,
+    ) -> Result<Option<Oid>> {
+        if file.mode() == FileMode::Commit {
+            return Ok(Some(file.id()).filter(|id| !id.is_zero()));
+        }
+        let Some(relative) = bytes_to_path(path) else {
+            return Ok(None);
+        };
+        let full_path = workdir.join(relative);
+        let metadata = fs::symlink_metadata(&full_path)?;
+        if metadata.is_dir() {
+            return Ok(None);
+        }
+        if metadata.file_type().is_symlink() {
+            // git stores the target of the link as the blob
+            let target = fs::read_link(&full_path)?;
+            let target = target.to_string_lossy();
+            return Ok(Some(Oid::hash_object(ObjectType::Blob, target.as_bytes())?));
+        }
+        let modified = metadata.modified().ok();
+        let stamp = modified.and_then(unix_time).map(|modified| Stamp {
+            size: metadata.len(),
+            modified,
+        });
+        if let Some(stamp) = stamp {
+            if let Some(&(cached, id)) = self.entries.get(path) {
+                if cached == stamp {
+                    self.used.insert(path.to_vec(), (stamp, id));
+                    return Ok(Some(id));
+                }
+            }
+        }
+        let id = repo.blob_path(&full_path);
+        blobs.reset()?;
+        let id = id?;
+        let settled = modified.is_some_and(|modified| {
+            self.started
+                .duration_since(modified)
+                .is_ok_and(|age| age > RACY_WINDOW)
+        });
+        // paths are stored one per line
+        if let (Some(stamp), true, false) = (stamp, settled, path.contains(&b'\n')) {
+            self.used.insert(path.to_vec(), (stamp, id));
+        }
+        Ok(Some(id))
+    }
+
+    fn write(&self, path: &Path) -> Result<()> {
+        let mut contents = String::from(CACHE_HEADER);
+        contents.push('\n');
+        for (file, (stamp, id)) in &self.used {
+            let Ok(file) = std::str::from_utf8(file) else {
+                continue;
+            };
+            let (seconds, nanoseconds) = stamp.modified;
+            writeln!(contents, "{id} {} {seconds} {nanoseconds} {file}", stamp.size)?;
+        }
+        // replaced atomically, so concurrent builds never read a partially written cache
+        let parent = path.parent().ok_or("Cannot get parent directory!")?;
+        fs::create_dir_all(parent)?;
+        let mut file_name = path.file_name().ok_or("Cannot get file name!")?.to_owned();
+        file_name.push(format!(".{}.tmp", std::process::id()));
+        let temp_path = parent.join(file_name);
+        fs::write(&temp_path, contents)
+            .and_then(|_| fs::rename(&temp_path, path))
+            .inspect_err(|_| {
+                let _ = fs::remove_file(&temp_path);
+            })?;
+        Ok(())
+    }
+}
@@ -1,80 +1,223 @@
-use std::num::NonZero;
+use std::path::Path;
+use std::time::{Duration, Instant};
 
+use git2::Repository;
 use jni::JNIEnv;
-use jni::objects::{JClass, JString};
-use jni::sys::jint;
+use jni::objects::{JBooleanArray, JClass, JObject, JObjectArray, JString, JValue};
+use jni::sys::{jboolean, jbooleanArray, jint, jlong, jobject};
 
-use crate::{Options, Results};
+use crate::{BuildDate, Error, Options, Result, Results, ScanConfig};
 
-type Result<T> = std::result::Result<T, NonZero<jint>>;
+const SNAPSHOT_CLASS: &str = "io/github/cuttestkittensrule/GitSnapshot";
+const SNAPSHOT_FACTORY_SIG: &str = concat!(
+    // sha, branch name, commit time, dirty
+    "(Ljava/lang/String;Ljava/lang/String;ZJIZZ",
+    // nearest tag, commits since tag, abbreviated sha, last changed sha, dirty fingerprint, stats
+    "Ljava/lang/String;JLjava/lang/String;Ljava/lang/String;Ljava/lang/String;[J)",
+    "Lio/github/cuttestkittensrule/GitSnapshot;"
+);
 
-macro_rules! err_code {
-    (0) => { compile_error!("Error code cannot be 0!") };
-    (0b0000_0000) => { compile_error!("Error code cannot be 0!") };
-    ($code:literal) => {
-        {
-            let code: jint = $code;
-            assert_ne!(code, 0);
-            unsafe { NonZero::new_unchecked(code) }
-        }
-    };
-}
+const EXCEPTION_CLASS: &str = "java/lang/RuntimeException";
+/// Prefix of the message of the exception thrown when the repository can't be read.
+const BROKEN_ASSUMPTION: &str = "A fundamental assumption of git state was broken!";
 
-/// Generates a Java properties file with git information.
+/// Takes a snapshot of the state of a git repository.
 ///
 /// # Arguments
 ///
 /// [`repo_path`]: The path to the git repository
-/// [`property_path`]: The path to the properties file
+/// [`scope`]: The directory to check for uncommitted changes, relative to the repository and
+/// separated with `/`, or `null` to check the whole repository (see [`ScanConfig::scope`])
+/// [`options`]: The [`Options`] bitflags
+/// [`threads`]: The number of threads that compare the index against the working tree
+/// [`cache_dir`]: The directory that results are kept in between scans, or `null` to not keep
+/// them (see [`ScanConfig::cache_dir`])
 ///
-/// # Error Codes
+/// # Return Value
 ///
-/// 0b0001_0001 (0x11): Failed to get repo path
-/// 0b0001_0010 (0x12): Failed to get property path
-/// 0b0010_0001 (0x21): Fundamental assumption of state of git failed
-/// 0b0010_0010 (0x22): IO error while creating properties file (details in stderr)
+/// A `GitSnapshot` object. If the repository can't be scanned (see [`Results::try_new`]), a
+/// `RuntimeException` describing why is thrown instead.
+#[unsafe(no_mangle)]
+pub extern "system" fn Java_io_github_cuttestkittensrule_GitDetailsJNI_snapshot<'local>(
+    mut env: JNIEnv<'local>,
+    _: JClass<'local>,
+    repo_path: JString<'local>,
+    scope: JString<'local>,
+    options: jint,
+    threads: jint,
+    cache_dir: JString<'local>,
+) -> jobject {
+    match inner_snapshot(&mut env, repo_path, scope, options, threads, cache_dir) {
+        Ok(snapshot) => snapshot.into_raw(),
+        Err(err) => {
+            throw(&mut env, err);
+            JObject::null().into_raw()
+        }
+    }
+}
+
+/// Checks which paths of a repository are ignored.
 ///
-/// # Fundamental assumptions
+/// # Arguments
+///
+/// [`repo_path`]: The path to the git repository
+/// [`paths`]: The paths to check, relative to the repository and separated with `/`. Directories
+/// end with a `/`.
 ///
-/// * The git repository can be opened
-/// * The head reference exists
-/// * The head reference can be peeled to a commit
-///   * When recursively following the head reference, eventually it will point to a commit
-/// * The current status of the repo can be queried
+/// # Return Value
 ///
-/// All other error cases are represented by properties not being generated in the properties file.
+/// A `boolean[]` with whether each path is ignored. If the repository can't be opened, a
+/// `RuntimeException` is thrown instead.
 #[unsafe(no_mangle)]
-pub extern "system" fn Java_com_team2813_gradle_GitDetailsJNI_generateGitProperties<'local>(
-    env: JNIEnv<'local>,
+pub extern "system" fn Java_io_github_cuttestkittensrule_GitDetailsJNI_ignored<'local>(
+    mut env: JNIEnv<'local>,
     _: JClass<'local>,
     repo_path: JString<'local>,
-    property_path: JString<'local>,
-    options: jint,
-) -> jint {
-    match inner_gen_git_prop(env, repo_path, property_path, options) {
-        Err(ecode) => ecode.get(),
-        Ok(_) => 0,
+    paths: JObjectArray<'local>,
+) -> jbooleanArray {
+    match inner_ignored(&mut env, repo_path, paths) {
+        Ok(ignored) => ignored.into_raw(),
+        Err(err) => {
+            throw(&mut env, err);
+            JObject::null().into_raw()
+        }
     }
 }
 
-fn inner_gen_git_prop<'local>(
-    mut env: JNIEnv<'local>,
+/// Throws a `RuntimeException` for an error, unless an exception is already pending. Only errors
+/// from reading the repository are prefixed with [`BROKEN_ASSUMPTION`]; errors from passing values
+/// to or from the JVM are reported as they are.
+fn throw(env: &mut JNIEnv, err: Error) {
+    // a pending exception (e.g. from failing to allocate a string) takes priority
+    if !env.exception_check().unwrap_or(true) {
+        let message = if err.is::<jni::errors::Error>() {
+            format!("Failed to pass values between the JVM and git_details: {err}")
+        } else {
+            format!("{BROKEN_ASSUMPTION} {err}")
+        };
+        let _ = env.throw_new(EXCEPTION_CLASS, message);
+    }
+}
+
+fn inner_ignored<'local>(
+    env: &mut JNIEnv<'local>,
     repo_path: JString<'local>,
-    property_path: JString<'local>,
+    paths: JObjectArray<'local>,
+) -> Result<JBooleanArray<'local>> {
+    let repo_path: String = env.get_string(&repo_path)?.into();
+    crate::clone_kind::allow_partial_clones()?;
+    let repo = Repository::open(repo_path)
+        .map_err(|err| format!("Failed to open the repository: {}", err.message()))?;
+    let count = env.get_array_length(&paths)?;
+    let mut ignored: Vec<jboolean> = Vec::with_capacity(count as usize);
+    for index in 0..count {
+        let path = JString::from(env.get_object_array_element(&paths, index)?);
+        let path_string: String = env.get_string(&path)?.into();
+        // free the local reference, since there may be more paths than local references
+        env.delete_local_ref(path)?;
+        ignored.push(repo.is_path_ignored(&path_string)?.into());
+    }
+    let array = env.new_boolean_array(count)?;
+    env.set_boolean_array_region(&array, 0, &ignored)?;
+    Ok(array)
+}
+
+fn inner_snapshot<'local>(
+    env: &mut JNIEnv<'local>,
+    repo_path: JString<'local>,
+    scope: JString<'local>,
     options: jint,
-) -> Result<()> {
-    let options = i32::cast_unsigned(options);
-    let options = Options::from_bits_truncate(options);
-    let repo_path: String = env.get_string(&repo_path).map_err(|_| err_code!(0b0001_0001))?.into();
-    let property_path: String = env
-        .get_string(&property_path)
-        .map_err(|_| err_code!(0b0001_0010))?
-        .into();
-    let results = Results::options_new(repo_path, options).ok_or(err_code!(0b0010_0001))?;
-    results
-        .create_java_properties(property_path)
-        .map_err(|err| {
-            eprintln!("An error occured while writing the properties file: {err:?}");
-            err_code!(0b0010_0010)
-        })
+    threads: jint,
+    cache_dir: JString<'local>,
+) -> Result<JObject<'local>> {
+    let options = Options::from_bits_truncate(i32::cast_unsigned(options));
+    let start = Instant::now();
+    let repo_path: String = env.get_string(&repo_path)?.into();
+    let scope: Option<String> = if scope.is_null() {
+        None
+    } else {
+        Some(env.get_string(&scope)?.into())
+    };
+    let cache_dir: Option<String> = if cache_dir.is_null() {
+        None
+    } else {
+        Some(env.get_string(&cache_dir)?.into())
+    };
+    let mut conversion = start.elapsed();
+    let config = ScanConfig {
+        scope: scope.as_deref(),
+        threads: usize::try_from(threads).unwrap_or_default(),
+        cache_dir: cache_dir.as_deref().map(Path::new),
+    };
+    let results = Results::try_new_with(repo_path, options, BuildDate::Omit, config)?;
+
+    let start = Instant::now();
+    let sha = env.new_string(results.sha())?;
+    let branch_name = match results.branch_name() {
+        Some(branch_name) => JObject::from(env.new_string(branch_name)?),
+        None => JObject::null(),
+    };
+    let (tag, distance, abbreviated_sha) = match results.describe() {
+        Some(describe) => {
+            let tag = match describe.tag {
+                Some(ref tag) => JObject::from(env.new_string(tag)?),
+                None => JObject::null(),
+            };
+            let abbreviated_sha = JObject::from(env.new_string(&describe.abbreviated_sha)?);
+            (tag, describe.distance as jlong, abbreviated_sha)
+        }
+        None => (JObject::null(), 0, JObject::null()),
+    };
+    let last_changed_sha = match results.last_changed_sha() {
+        Some(last_changed_sha) => JObject::from(env.new_string(last_changed_sha)?),
+        None => JObject::null(),
+    };
+    let dirty_fingerprint = match results.dirty_fingerprint() {
+        Some(dirty_fingerprint) => JObject::from(env.new_string(dirty_fingerprint)?),
+        None => JObject::null(),
+    };
+    conversion += start.elapsed();
+    // order must match `ScanStats.fromNative`
+    let stats = results.stats();
+    let stats = [
+        nanos(stats.open),
+        nanos(stats.head),
+        nanos(stats.describe),
+        nanos(stats.status),
+        nanos(conversion),
+        stats.entries_scanned as jlong,
+        stats.dirs_visited as jlong,
+        stats.untracked_dirs_visited as jlong,
+    ];
+    let stats_array = env.new_long_array(stats.len() as i32)?;
+    env.set_long_array_region(&stats_array, 0, &stats)?;
+    let commit_time = results.commit_time();
+    let (commit_seconds, commit_offset_minutes) = commit_time
+        .map(|time| (time.timestamp(), time.offset().local_minus_utc() / 60))
+        .unwrap_or_default();
+    let snapshot = env.call_static_method(
+        SNAPSHOT_CLASS,
+        "fromNative",
+        SNAPSHOT_FACTORY_SIG,
+        &[
+            JValue::Object(&sha),
+            JValue::Object(&branch_name),
+            JValue::Bool(commit_time.is_some().into()),
+            JValue::Long(commit_seconds),
+            JValue::Int(commit_offset_minutes),
+            JValue::Bool(results.dirty().is_some().into()),
+            JValue::Bool(results.dirty().unwrap_or_default().into()),
+            JValue::Object(&tag),
+            JValue::Long(distance),
+            JValue::Object(&abbreviated_sha),
+            JValue::Object(&last_changed_sha),
+            JValue::Object(&dirty_fingerprint),
+            JValue::Object(&stats_array),
+        ],
+    )?;
+    Ok(snapshot.l()?)
+}
+
+fn nanos(duration: Duration) -> jlong {
+    jlong::try_from(duration.as_nanos()).unwrap_or(jlong::MAX)
 }
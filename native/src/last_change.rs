@@ -0,0 +1,64 @@
+//! Finding the last commit that changed a directory, like `git log -1 -- <directory>`.
+//!
+//! Rather than diffing every commit, only the ID of the directory's tree is compared: when a parent
+//! has the same tree for the directory, the directory didn't change in that commit, and the walk
+//! continues with that parent (following the same history simplification as `git log`). Looking up
+//! a tree entry only reads the trees along the path, so each step is cheap.
+//!
+//! In a shallow clone the walk can reach a commit whose parents were not fetched, and in a partial
+//! clone the trees of old commits may be missing; either way, the last change can't be known.
+
+use std::path::Path;
+
+use git2::{Commit, ErrorClass, ErrorCode, Oid};
+
+use crate::{CloneKind, Result};
+
+/// Finds the last commit reachable from `commit` that changed `scope`.
+///
+/// `scope` is relative to the root of the repository and separated with `/`; an empty scope is the
+/// whole repository. Returns `None` if `scope` does not exist in `commit`, or if the history
+/// needed to find the last change was not fetched (see [`CloneKind`]).
+pub fn last_change(commit: &Commit, scope: &str, clone: &CloneKind) -> Result<Option<Oid>> {
+    let scope = scope.trim_matches('/');
+    let Some(id) = scope_id(commit, scope)? else {
+        return Ok(None);
+    };
+    let mut commit = commit.clone();
+    'walk: loop {
+        if clone.is_boundary(commit.id()) {
+            return Ok(None);
+        }
+        for parent in commit.parents() {
+            match scope_id(&parent, scope) {
+                Ok(parent_id) if parent_id == Some(id) => {
+                    commit = parent;
+                    continue 'walk;
+                }
+                Ok(_) => {}
+                Err(err) if clone.partial && err.code() == ErrorCode::NotFound => {
+                    return Ok(None);
+                }
+                Err(err) => return Err(err.into()),
+            }
+        }
+        // the scope is different from every parent (or this is a root commit)
+        return Ok(Some(commit.id()));
+    }
+}
+
+/// Gets the ID of the object at `scope` in the tree of a commit.
+fn scope_id(commit: &Commit, scope: &str) -> std::result::Result<Option<Oid>, git2::Error> {
+    let tree = commit.tree()?;
+    if scope.is_empty() {
+        return Ok(Some(tree.id()));
+    }
+    match tree.get_path(Path::new(scope)) {
+        Ok(entry) => Ok(Some(entry.id())),
+        // only a missing path is reported by the tree; a missing object is an error from the odb
+        Err(err) if err.code() == ErrorCode::NotFound && err.class() == ErrorClass::Tree => {
+            Ok(None)
+        }
+        Err(err) => Err(err),
+    }
+}
@@ -1,13 +1,26 @@
+mod clone_kind;
+mod describe;
+mod dirty;
+mod fingerprint;
 #[cfg(feature = "jni")]
 mod jni;
+mod last_change;
 
+pub use clone_kind::CloneKind;
+pub use describe::Describe;
+pub use dirty::{DirtyCheck, DirtyLevel, SubmoduleMode};
+pub use fingerprint::dirty_fingerprint;
+pub use last_change::last_change;
+
+use std::fmt::Write as _;
 use std::fs;
 use std::io::Write;
+use std::time::{Duration, Instant};
 use std::{fs::File, path::Path};
 
 use bitflags::bitflags;
-use chrono::{DateTime, FixedOffset, Local, TimeZone};
-use git2::{Branch, Repository, StatusOptions, Time};
+use chrono::{DateTime, FixedOffset, Local, TimeZone, Utc};
+use git2::{Branch, Repository, Time};
 
 pub type Error = Box<dyn std::error::Error>;
 pub type Result<T> = std::result::Result<T, Error>;
@@ -16,17 +29,102 @@ bitflags! {
     #[derive(Debug, Clone, Copy, PartialEq, Eq, Hash)]
     pub struct Options: u32 {
         const GVERSION_COMPAT = 1;
+        // bits 1 to 3 are reserved; they chose the build date, which is now a `BuildDate` given
+        // to `Results::try_new` (the plugin renders the build date itself)
+        /// Count changes in submodules as uncommitted changes (see [`SubmoduleMode::Dirty`])
+        const DIRTY_SUBMODULES = 1 << 4;
+        /// Get the full status of the repository (including the contents of untracked
+        /// directories) instead of stopping at the first change
+        const DIRTY_RECURSE_UNTRACKED = 1 << 5;
+        /// Find the nearest tag and the number of commits since it (see [`Describe`])
+        const DESCRIBE = 1 << 6;
+        /// Hash the uncommitted changes (see [`dirty_fingerprint`])
+        const DIRTY_FINGERPRINT = 1 << 7;
+        /// Don't report the commit time of `HEAD`. It is still read if it is the build date.
+        const SKIP_COMMIT_TIME = 1 << 8;
+        /// Don't check for uncommitted changes, which is by far the most expensive part of a
+        /// scan. [`Options::DIRTY_FINGERPRINT`] is ignored, since there are no known changes.
+        const SKIP_STATUS = 1 << 9;
+        /// Don't look up the name of the checked out branch
+        const SKIP_BRANCH = 1 << 10;
+        /// Also count every untracked file that isn't ignored as an uncommitted change (see
+        /// [`DirtyLevel::Full`]). Without it or [`Options::DIRTY_TOP_LEVEL_UNTRACKED`], only tracked
+        /// files are checked.
+        const DIRTY_UNTRACKED = 1 << 11;
+        /// Also count untracked paths next to tracked files, without searching untracked
+        /// directories for files that aren't ignored (see [`DirtyLevel::TopLevelUntracked`])
+        const DIRTY_TOP_LEVEL_UNTRACKED = 1 << 12;
+        /// Also count untracked files in submodules as uncommitted changes (see
+        /// [`SubmoduleMode::All`])
+        const DIRTY_SUBMODULES_UNTRACKED = 1 << 13;
     }
 }
 
+/// Where the build date comes from.
+///
+/// Every mode other than [`BuildDate::Now`] is deterministic, so the same commit always produces
+/// the same properties file.
+#[derive(Debug, Clone, Copy, PartialEq, Eq, Hash)]
+pub enum BuildDate {
+    /// The current time of the system
+    Now,
+    /// The time the checked out commit was made
+    CommitTime,
+    /// A fixed UNIX timestamp, in seconds
+    Fixed(i64),
+    /// No build date
+    Omit,
+}
+
+/// Settings for scanning a repository that aren't flags.
+#[derive(Debug, Clone, Copy, Default, PartialEq, Eq, Hash)]
+pub struct ScanConfig<'a> {
+    /// Only check this directory for uncommitted changes, and find the last commit that changed
+    /// it (see [`last_change`]). It is relative to the root of the working tree, and separated
+    /// with `/`.
+    pub scope: Option<&'a str>,
+    /// The number of threads that compare the index against the working tree (see
+    /// [`DirtyCheck::threads`])
+    pub threads: usize,
+    /// The directory that results are kept in between scans: the hashes of changed files, if
+    /// [`Options::DIRTY_FINGERPRINT`] is set (see [`dirty_fingerprint`]), and the nearest tags of
+    /// recent commits, if [`Options::DESCRIBE`] is set (see [`Describe::new`]). It should be
+    /// outside of the repository, e.g. in the build directory.
+    pub cache_dir: Option<&'a Path>,
+}
+
+/// How long each phase of scanning a repository took, and how much work the dirty check did.
+#[derive(Debug, Clone, Copy, Default, PartialEq, Eq)]
+pub struct ScanStats {
+    /// Opening the repository
+    pub open: Duration,
+    /// Peeling `HEAD` to a commit, reading the branch name, and finding the last change to the
+    /// scope (if the scan is scoped)
+    pub head: Duration,
+    /// Finding the nearest tag, if [`Options::DESCRIBE`] is set
+    pub describe: Duration,
+    /// Checking for uncommitted changes
+    pub status: Duration,
+    /// The number of index entries compared against the working tree
+    pub entries_scanned: u64,
+    /// The number of directories with tracked files that were searched for untracked files
+    pub dirs_visited: u64,
+    /// The number of untracked directories that were searched for files that aren't ignored
+    pub untracked_dirs_visited: u64,
+}
+
 #[derive(Debug)]
 pub struct Results {
     options: Options,
     sha: String,
     commit_time: Option<DateTime<FixedOffset>>,
-    dirty: bool,
+    dirty: Option<bool>,
     branch_name: Option<String>,
-    build_date: DateTime<Local>,
+    build_date: Option<DateTime<FixedOffset>>,
+    describe: Option<Describe>,
+    last_changed_sha: Option<String>,
+    dirty_fingerprint: Option<String>,
+    stats: ScanStats,
 }
 
 impl Results {
@@ -35,32 +133,158 @@ impl Results {
         let local_result = offset.timestamp_millis_opt(git_time.seconds() * 1_000);
         local_result.latest()
     }
+    fn calculate_build_date(
+        build_date: BuildDate,
+        commit_time: Option<DateTime<FixedOffset>>,
+    ) -> Option<DateTime<FixedOffset>> {
+        match build_date {
+            BuildDate::Now => {
+                let now = Local::now();
+                Some(now.with_timezone(now.offset()))
+            }
+            BuildDate::CommitTime => commit_time,
+            BuildDate::Fixed(seconds) => Utc
+                .timestamp_opt(seconds, 0)
+                .single()
+                .map(|time| time.fixed_offset()),
+            BuildDate::Omit => None,
+        }
+    }
     pub fn options_new<P: AsRef<Path>>(filepath: P, options: Options) -> Option<Results> {
-        let build_time = Local::now();
-        
-        let repo = Repository::open(filepath).ok()?;
-        let head = repo.head().ok()?;
-        let commit = head.peel_to_commit().ok()?;
+        Self::build_date_new(filepath, options, BuildDate::Now)
+    }
+    pub fn build_date_new<P: AsRef<Path>>(
+        filepath: P,
+        options: Options,
+        build_date: BuildDate,
+    ) -> Option<Results> {
+        Self::try_new(filepath, options, build_date).ok()
+    }
+    /// Scans a repository, returning an error describing which of the fundamental assumptions
+    /// about the state of the repository was broken if it can't be scanned.
+    ///
+    /// # Fundamental assumptions
+    ///
+    /// * The git repository can be opened
+    /// * The head reference exists
+    /// * The head reference can be peeled to a commit
+    ///   * When recursively following the head reference, eventually it will point to a commit
+    /// * The current status of the repo can be queried
+    ///
+    /// All other error cases are represented by missing values.
+    pub fn try_new<P: AsRef<Path>>(
+        filepath: P,
+        options: Options,
+        build_date: BuildDate,
+    ) -> Result<Results> {
+        Self::try_new_with(filepath, options, build_date, ScanConfig::default())
+    }
+    /// Scans a repository like [`Results::try_new`], with the settings in `config` that can't be
+    /// expressed as [`Options`].
+    pub fn try_new_with<P: AsRef<Path>>(
+        filepath: P,
+        options: Options,
+        build_date: BuildDate,
+        config: ScanConfig,
+    ) -> Result<Results> {
+        let scope = config.scope;
+        let mut stats = ScanStats::default();
+        let start = Instant::now();
+        clone_kind::allow_partial_clones()?;
+        let repo = Repository::open(filepath)
+            .map_err(|err| format!("Failed to open the repository: {}", err.message()))?;
+        let clone = CloneKind::detect(&repo);
+        stats.open = start.elapsed();
+
+        let start = Instant::now();
+        let head = repo
+            .head()
+            .map_err(|err| format!("Failed to read HEAD: {}", err.message()))?;
+        let commit = head
+            .peel_to_commit()
+            .map_err(|err| format!("HEAD does not point to a commit: {}", err.message()))?;
         let sha = format!("{:?}", commit.id());
-        let commit_time = Self::calculate_time(commit.time());
-        let dirty = !repo
-            .statuses(Some(StatusOptions::new().include_ignored(false)))
-            .ok()?
-            .is_empty();
-        let branch_name = if head.is_branch() {
+        let read_commit_time = !options.contains(Options::SKIP_COMMIT_TIME)
+            || matches!(build_date, BuildDate::CommitTime);
+        let mut commit_time = if read_commit_time {
+            Self::calculate_time(commit.time())
+        } else {
+            None
+        };
+        let branch_name = if head.is_branch() && !options.contains(Options::SKIP_BRANCH) {
             let head = Branch::wrap(head);
             head.name().ok().flatten().map(|x| x.to_string())
         } else {
             None
         };
+        let last_changed_sha = match scope {
+            Some(scope) => last_change(&commit, scope, &clone)
+                .map_err(|err| format!("Failed to find the last change to {scope}: {err}"))?
+                .map(|id| format!("{id:?}")),
+            None => None,
+        };
+        stats.head = start.elapsed();
+
+        let start = Instant::now();
+        let describe = if options.contains(Options::DESCRIBE) {
+            let cache = config.cache_dir.map(|dir| dir.join(describe::CACHE_FILE));
+            match Describe::new(&repo, &commit, cache.as_deref()) {
+                // without the full history, a missing tag may just not have been fetched
+                Ok(describe) if clone.shallow() && describe.tag.is_none() => None,
+                Ok(describe) => Some(describe),
+                Err(err) if clone.is_missing_object(&err) => None,
+                Err(err) => return Err(format!("Failed to find the nearest tag: {err}").into()),
+            }
+        } else {
+            None
+        };
+        stats.describe = start.elapsed();
+
+        let start = Instant::now();
+        let dirty_check = DirtyCheck {
+            threads: config.threads,
+            ..DirtyCheck::from_options(options)
+        };
+        let dirty = if options.contains(Options::SKIP_STATUS) {
+            None
+        } else {
+            let dirty = dirty_check
+                .is_dirty_in(&repo, scope.unwrap_or_default(), &mut stats)
+                .map_err(|err| format!("Failed to check for uncommitted changes: {err}"))?;
+            Some(dirty)
+        };
+        let dirty_fingerprint = if dirty == Some(true)
+            && options.contains(Options::DIRTY_FINGERPRINT)
+        {
+            let cache = config.cache_dir.map(|dir| dir.join(fingerprint::CACHE_FILE));
+            dirty_fingerprint(
+                &repo,
+                scope.unwrap_or_default(),
+                &dirty_check,
+                cache.as_deref(),
+            )
+            .map_err(|err| format!("Failed to fingerprint the uncommitted changes: {err}"))?
+        } else {
+            None
+        };
+        stats.status = start.elapsed();
+
+        let build_date = Self::calculate_build_date(build_date, commit_time);
+        if options.contains(Options::SKIP_COMMIT_TIME) {
+            commit_time = None;
+        }
 
-        Some(Results {
+        Ok(Results {
             options,
             sha,
             commit_time,
             dirty,
             branch_name,
-            build_date: build_time,
+            build_date,
+            describe,
+            last_changed_sha,
+            dirty_fingerprint,
+            stats,
         })
     }
     pub fn new<P: AsRef<Path>>(filepath: P) -> Option<Results> {
@@ -72,36 +296,162 @@ impl Results {
     pub fn commit_time(&self) -> Option<DateTime<FixedOffset>> {
         self.commit_time
     }
-    pub fn dirty(&self) -> bool {
+    /// If there are uncommitted changes, unless [`Options::SKIP_STATUS`] is set.
+    pub fn dirty(&self) -> Option<bool> {
         self.dirty
     }
+    pub fn build_date(&self) -> Option<DateTime<FixedOffset>> {
+        self.build_date
+    }
+    pub fn describe(&self) -> Option<&Describe> {
+        self.describe.as_ref()
+    }
+    /// The last commit that changed the scope, if the scan is scoped and the scope exists in the
+    /// checked out commit.
+    pub fn last_changed_sha(&self) -> Option<&str> {
+        self.last_changed_sha.as_deref()
+    }
+    /// The hash of the uncommitted changes, if [`Options::DIRTY_FINGERPRINT`] is set and there are
+    /// uncommitted changes.
+    pub fn dirty_fingerprint(&self) -> Option<&str> {
+        self.dirty_fingerprint.as_deref()
+    }
+    pub fn stats(&self) -> ScanStats {
+        self.stats
+    }
     pub fn branch_name(&self) -> Option<&str> {
         match self.branch_name {
             Some(ref string) => Some(string.as_str()),
             None => None,
         }
     }
-    pub fn create_java_properties<P: AsRef<Path>>(self, filepath: P) -> Result<()> {
-        fs::create_dir_all(filepath.as_ref().parent().ok_or_else(|| Error::from("Cannot get parent directory!"))?)?;
-        let mut file = File::create(filepath)?;
-        writeln!(file, "git_sha={}", self.sha)?;
+    /// Renders the contents of a Java properties file.
+    pub fn java_properties(&self) -> String {
+        let mut properties = String::new();
+        // writing to a string can't fail
+        let _ = self.write_java_properties(&mut properties);
+        properties
+    }
+    fn write_java_properties(&self, out: &mut String) -> std::fmt::Result {
+        writeln!(out, "git_sha={}", self.sha)?;
         if let Some(commit_time) = self.commit_time {
             if self.options.contains(Options::GVERSION_COMPAT) {
-                writeln!(file, "git_date={commit_time:?}")?;
+                writeln!(out, "git_date={commit_time:?}")?;
             } else {
-                writeln!(file, "commit_date={commit_time:?}")?;
+                writeln!(out, "commit_date={commit_time:?}")?;
             }
         }
-        writeln!(file, "build_date={:?}", self.build_date)?;
-        if self.options.contains(Options::GVERSION_COMPAT) {
-            writeln!(file, "build_unix_time={}", self.build_date.timestamp())?;
-            writeln!(file, "dirty={}", self.dirty as u8)?;
-        } else {
-            writeln!(file, "has_uncommited_changes={}", self.dirty)?;
+        if let Some(build_date) = self.build_date {
+            writeln!(out, "build_date={build_date:?}")?;
+            if self.options.contains(Options::GVERSION_COMPAT) {
+                writeln!(out, "build_unix_time={}", build_date.timestamp())?;
+            }
+        }
+        if let Some(dirty) = self.dirty {
+            if self.options.contains(Options::GVERSION_COMPAT) {
+                writeln!(out, "dirty={}", dirty as u8)?;
+            } else {
+                writeln!(out, "has_uncommited_changes={dirty}")?;
+            }
+        }
+        if let Some(ref branch_name) = self.branch_name {
+            writeln!(out, "branch_name={branch_name}")?;
+        }
+        if let Some(ref describe) = self.describe {
+            if let Some(ref tag) = describe.tag {
+                writeln!(out, "nearest_tag={tag}")?;
+                writeln!(out, "commits_since_tag={}", describe.distance)?;
+            }
+            writeln!(out, "describe={}", describe.version())?;
         }
-        if let Some(branch_name) = self.branch_name {
-            writeln!(file, "branch_name={branch_name}")?;
+        if let Some(ref last_changed_sha) = self.last_changed_sha {
+            writeln!(out, "last_changed_sha={last_changed_sha}")?;
+        }
+        if let Some(ref dirty_fingerprint) = self.dirty_fingerprint {
+            writeln!(out, "dirty_fingerprint={dirty_fingerprint}")?;
+        }
+        Ok(())
+    }
+    /// Renders the results as a JSON object. Unlike the properties file, values are typed, and
+    /// values that aren't available are `null`.
+    pub fn json(&self) -> String {
+        let mut json = String::from("{");
+        // writing to a string can't fail
+        let _ = self.write_json_fields(&mut json);
+        json.push('}');
+        json
+    }
+    /// Writes the fields of [`Results::json`], without the surrounding braces, so that they can
+    /// be combined with other fields.
+    pub fn write_json_fields(&self, out: &mut String) -> std::fmt::Result {
+        let optional = |value: Option<&str>| value.map_or_else(|| "null".to_string(), json_string);
+        write!(out, "\"git_sha\":{}", json_string(&self.sha))?;
+        let commit_date = self.commit_time.map(|time| format!("{time:?}"));
+        write!(out, ",\"commit_date\":{}", optional(commit_date.as_deref()))?;
+        let build_date = self.build_date.map(|time| format!("{time:?}"));
+        write!(out, ",\"build_date\":{}", optional(build_date.as_deref()))?;
+        let dirty = self.dirty.map(|dirty| dirty.to_string());
+        write!(out, ",\"dirty\":{}", dirty.as_deref().unwrap_or("null"))?;
+        write!(out, ",\"branch_name\":{}", optional(self.branch_name.as_deref()))?;
+        if let Some(ref describe) = self.describe {
+            let distance = describe.tag.as_ref().map(|_| describe.distance.to_string());
+            write!(out, ",\"nearest_tag\":{}", optional(describe.tag.as_deref()))?;
+            write!(out, ",\"commits_since_tag\":{}", distance.as_deref().unwrap_or("null"))?;
+            write!(out, ",\"describe\":{}", json_string(&describe.version()))?;
+        }
+        if let Some(ref last_changed_sha) = self.last_changed_sha {
+            write!(out, ",\"last_changed_sha\":{}", json_string(last_changed_sha))?;
+        }
+        if let Some(ref dirty_fingerprint) = self.dirty_fingerprint {
+            write!(out, ",\"dirty_fingerprint\":{}", json_string(dirty_fingerprint))?;
         }
         Ok(())
     }
+    /// Writes a Java properties file, unless it already has the same contents. The file is
+    /// replaced atomically, so readers never see a partially written file.
+    pub fn create_java_properties<P: AsRef<Path>>(self, filepath: P) -> Result<()> {
+        let filepath = filepath.as_ref();
+        let contents = self.java_properties();
+        if fs::read(filepath).is_ok_and(|existing| existing == contents.as_bytes()) {
+            return Ok(());
+        }
+        let parent = filepath
+            .parent()
+            .ok_or_else(|| Error::from("Cannot get parent directory!"))?;
+        fs::create_dir_all(parent)?;
+        let mut file_name = filepath
+            .file_name()
+            .ok_or_else(|| Error::from("Cannot get file name!"))?
+            .to_owned();
+        file_name.push(format!(".{}.tmp", std::process::id()));
+        let temp_path = parent.join(file_name);
+        let written = File::create(&temp_path)
+            .and_then(|mut file| file.write_all(contents.as_bytes()))
+            .and_then(|_| fs::rename(&temp_path, filepath));
+        if written.is_err() {
+            let _ = fs::remove_file(&temp_path);
+        }
+        Ok(written?)
+    }
+}
+
+/// Quotes and escapes a string for JSON.
+pub fn json_string(value: &str) -> String {
+    let mut quoted = String::with_capacity(value.len() + 2);
+    quoted.push('"');
+    for c in value.chars() {
+        match c {
+            '"' => quoted.push_str("\\\""),
+            '\\' => quoted.push_str("\\\\"),
+            '\n' => quoted.push_str("\\n"),
+            '\r' => quoted.push_str("\\r"),
+            '\t' => quoted.push_str("\\t"),
+            c if c < ' ' => {
+                let _ = write!(quoted, "\\u{:04x}", c as u32);
+            }
+            c => quoted.push(c),
+        }
+    }
+    quoted.push('"');
+    quoted
 }
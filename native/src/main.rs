@@ -1,8 +1,20 @@
-use std::{env, path::PathBuf};
+use std::fs::File;
+use std::io::{self, BufRead, BufReader, Write};
+use std::num::NonZeroUsize;
+use std::sync::Mutex;
+use std::sync::atomic::{AtomicBool, Ordering};
+use std::time::Instant;
+use std::{env, path::PathBuf, process, thread};
 
-use git_details::{Result, Results, Error};
+use git_details::{BuildDate, Error, Options, Result, Results, json_string};
+
+const BATCH_USAGE: &str = "Usage: git_details --batch [--jobs <count>] [<file of paths> | -]";
 
 fn main() -> Result<()> {
+    if env::args().nth(1).as_deref() == Some("--batch") {
+        return batch(env::args().skip(2).collect());
+    }
+
     let filepath = env::args()
         .nth(1)
         .map(PathBuf::from)
@@ -31,3 +43,90 @@ fn main() -> Result<()> {
 
     Ok(())
 }
+
+/// Scans many repositories in one process. The paths of the repositories are read one per line
+/// from a file (or stdin), and scanned by a bounded pool of threads. One JSON object is printed
+/// per repository as soon as it is scanned, so the output is not in the same order as the input.
+/// A repository that can't be scanned is reported with an `error` field instead of stopping the
+/// run; the exit code is 1 if any repository failed.
+fn batch(args: Vec<String>) -> Result<()> {
+    let mut jobs = thread::available_parallelism().map_or(1, NonZeroUsize::get);
+    let mut input = None;
+    let mut args = args.into_iter();
+    while let Some(arg) = args.next() {
+        match arg.as_str() {
+            "--jobs" | "-j" => {
+                jobs = args
+                    .next()
+                    .and_then(|count| count.parse().ok())
+                    .filter(|&count| count > 0)
+                    .ok_or(BATCH_USAGE)?;
+            }
+            _ if input.is_none() => input = Some(arg),
+            _ => return Err(BATCH_USAGE.into()),
+        }
+    }
+    let lines: Box<dyn BufRead + Send> = match input.as_deref() {
+        None | Some("-") => Box::new(BufReader::new(io::stdin())),
+        Some(path) => Box::new(BufReader::new(File::open(path)?)),
+    };
+
+    let lines = Mutex::new(lines);
+    let failed = AtomicBool::new(false);
+    thread::scope(|scope| {
+        for _ in 0..jobs {
+            scope.spawn(|| batch_worker(&lines, &failed));
+        }
+    });
+    if failed.load(Ordering::Relaxed) {
+        process::exit(1);
+    }
+    Ok(())
+}
+
+/// Scans repositories until there are no more paths to read.
+fn batch_worker(lines: &Mutex<Box<dyn BufRead + Send>>, failed: &AtomicBool) {
+    loop {
+        let mut line = String::new();
+        // the lock is only held while reading the next path
+        let read = match lines.lock() {
+            Ok(mut lines) => lines.read_line(&mut line),
+            Err(_) => return,
+        };
+        match read {
+            Ok(0) => return,
+            Ok(_) => {}
+            Err(err) => {
+                eprintln!("Failed to read the paths of the repositories: {err}");
+                failed.store(true, Ordering::Relaxed);
+                return;
+            }
+        }
+        let path = line.trim_end_matches(['\n', '\r']);
+        if path.trim().is_empty() {
+            continue;
+        }
+
+        let start = Instant::now();
+        let results = Results::try_new(path, Options::empty(), BuildDate::Omit);
+        let elapsed_ms = start.elapsed().as_secs_f64() * 1_000.0;
+        let mut json = format!("{{\"path\":{}", json_string(path));
+        match results {
+            Ok(results) => {
+                json.push(',');
+                // writing to a string can't fail
+                let _ = results.write_json_fields(&mut json);
+            }
+            Err(err) => {
+                failed.store(true, Ordering::Relaxed);
+                json.push_str(&format!(",\"error\":{}", json_string(&err.to_string())));
+            }
+        }
+        json.push_str(&format!(",\"elapsed_ms\":{elapsed_ms:.3}}}"));
+        // each line is written while holding the lock on stdout, so lines never interleave
+        if writeln!(io::stdout().lock(), "{json}").is_err() {
+            // stdout was closed, so nobody is reading the results
+            return;
+        }
+    }
+}
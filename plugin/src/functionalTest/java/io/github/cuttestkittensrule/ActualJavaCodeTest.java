@@ -128,4 +128,30 @@ public class ActualJavaCodeTest {
     // Assert
     assertTrue(locations.expectedPropertyFile().exists(), "Expected property file doesn't exist!");
   }
+
+  @Test
+  void generatedJavaClass() throws Exception {
+    // Arrange
+    Class<?> cls = ActualJavaCodeTest.class;
+    new TestProjectBuilder(projectDir)
+        .generateJavaClass(true)
+        .addSourceFile("io.github.cuttestkittensrule", cls.getResource("/UsesGitInfo.java"))
+        .mainClass("io.github.cuttestkittensrule.UsesGitInfo")
+        .build();
+
+    // Act
+    GradleRunner runner = GradleRunner.create();
+    runner.forwardOutput();
+    runner.withPluginClasspath();
+    runner.withArguments("run");
+    runner.withProjectDir(projectDir);
+    // assertions in UsesGitInfo.java (resource); this will fail if UsesGitInfo#main(String[]) fails
+    runner.build();
+
+    // Assert
+    File generatedClass =
+        new File(
+            projectDir, "build/generated/sources/git_details/java/main/git_details/GitInfo.java");
+    assertTrue(generatedClass.exists(), "Expected generated class doesn't exist!");
+  }
 }
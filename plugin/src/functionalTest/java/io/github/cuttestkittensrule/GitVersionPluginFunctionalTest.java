@@ -18,8 +18,22 @@ package io.github.cuttestkittensrule;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
 import org.gradle.testkit.runner.BuildResult;
 import org.gradle.testkit.runner.GradleRunner;
+import org.gradle.testkit.runner.TaskOutcome;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -65,6 +79,503 @@ class GitVersionPluginFunctionalTest {
     assertTrue(locations.expectedPropertyFile().exists(), "Properties file does not exist!");
   }
 
+  @Test
+  void upToDateWhenRepositoryUnchanged() throws Exception {
+    // Prepare (ignoring the files written by the build, so they don't change the working tree)
+    Files.writeString(projectDir.toPath().resolve(".gitignore"), "build/\n.gradle/\n");
+    FileLocations locations = new TestProjectBuilder(projectDir).build();
+
+    // Act (run createGitProperties twice)
+    GradleRunner runner = runner("createGitProperties");
+    BuildResult first = runner.build();
+    BuildResult second = runner.build();
+
+    // Assert
+    assertTrue(locations.expectedPropertyFile().exists(), "Properties file does not exist!");
+    assertEquals(TaskOutcome.SUCCESS, first.task(":createGitProperties").getOutcome());
+    assertEquals(TaskOutcome.UP_TO_DATE, second.task(":createGitProperties").getOutcome());
+  }
+
+  @Test
+  void runsWhenWorkingTreeChanges() throws Exception {
+    // Prepare (ignoring the files written by the build, so they don't change the working tree)
+    Files.writeString(projectDir.toPath().resolve(".gitignore"), "build/\n.gradle/\n");
+    FileLocations locations = new TestProjectBuilder(projectDir).build();
+
+    // Act (run createGitProperties, then again after changing a tracked file)
+    GradleRunner runner = runner("createGitProperties");
+    runner.build();
+    Files.writeString(locations.buildFile().toPath(), "\n", StandardOpenOption.APPEND);
+    BuildResult changed = runner.build();
+    BuildResult unchanged = runner.build();
+
+    // Assert
+    assertEquals(TaskOutcome.SUCCESS, changed.task(":createGitProperties").getOutcome());
+    assertEquals(TaskOutcome.UP_TO_DATE, unchanged.task(":createGitProperties").getOutcome());
+    assertTrue(
+        readPropertyFile(locations).contains("has_uncommited_changes=true\n"),
+        "Changed working tree should be dirty!");
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"COMMIT_TIME", "SOURCE_DATE_EPOCH", "OMITTED"})
+  void deterministicBuildTimestamp(String buildTimestamp) throws Exception {
+    // Prepare
+    FileLocations locations =
+        new TestProjectBuilder(projectDir).buildTimestamp(buildTimestamp).build();
+
+    // Act (run createGitProperties twice, forcing it to run again)
+    GradleRunner runner = runner("createGitProperties", "--rerun-tasks");
+    runner.build();
+    byte[] first = Files.readAllBytes(locations.expectedPropertyFile().toPath());
+    Thread.sleep(1_100);
+    runner.build();
+    byte[] second = Files.readAllBytes(locations.expectedPropertyFile().toPath());
+
+    // Assert
+    assertArrayEquals(first, second, "Properties file should be identical for the same commit!");
+  }
+
+  @Test
+  void subprojectsShareSnapshot() throws Exception {
+    // Prepare
+    List<String> subprojects = List.of("a", "b", "c", "d");
+    TestProjectBuilder builder = new TestProjectBuilder(projectDir);
+    subprojects.forEach(builder::addSubproject);
+    FileLocations locations = builder.build();
+
+    // Act (run createGitProperties in every project in parallel)
+    runner("createGitProperties", "--parallel").build();
+
+    // Assert
+    String expected = readPropertyFile(locations);
+    String expectedSha =
+        expected.lines().filter(line -> line.startsWith("git_sha=")).findFirst().orElseThrow();
+    for (String subproject : subprojects) {
+      Path propertyFile = subprojectPropertyFile(subproject);
+      assertTrue(Files.exists(propertyFile), "Properties file does not exist!");
+      assertTrue(
+          Files.readString(propertyFile).contains(expectedSha + "\n"),
+          "Subprojects should have the same git sha!");
+    }
+  }
+
+  @Test
+  void configurationCacheReused() throws Exception {
+    // Prepare
+    FileLocations locations = new TestProjectBuilder(projectDir).build();
+
+    // Act (run createGitProperties twice, storing then loading the configuration cache)
+    GradleRunner runner = runner("createGitProperties");
+    BuildResult first = runner.build();
+    BuildResult second = runner.build();
+
+    // Assert
+    assertTrue(locations.expectedPropertyFile().exists(), "Properties file does not exist!");
+    assertTrue(
+        first.getOutput().contains("Configuration cache entry stored"),
+        "Configuration cache should be stored!");
+    assertTrue(
+        second.getOutput().contains("Reusing configuration cache"),
+        "Configuration cache should be reused!");
+  }
+
+  @Test
+  void timingsReported() throws Exception {
+    // Prepare
+    new TestProjectBuilder(projectDir).timingReport(true).build();
+
+    // Act (run createGitProperties with info logging)
+    BuildResult result = runner("createGitProperties", "--info").build();
+
+    // Assert
+    assertTrue(
+        result.getOutput().contains("Scanning the repository took"),
+        "Timings should be logged at info level!");
+    Path report =
+        projectDir.toPath().resolve("build/reports/git_details/createGitProperties-timings.json");
+    assertTrue(Files.exists(report), "Timing report does not exist!");
+    String contents = Files.readString(report);
+    assertTrue(contents.contains("\"task\": \":createGitProperties\""));
+    assertTrue(contents.contains("\"entriesScanned\": "));
+  }
+
+  @Test
+  void describeNearestTag() throws Exception {
+    // Prepare
+    FileLocations locations = new TestProjectBuilder(projectDir).describe(true).build();
+    new ProcessBuilder().directory(projectDir).command("git", "tag", "v1.0").start().waitFor();
+
+    // Act (run createGitProperties)
+    runner("createGitProperties").build();
+
+    // Assert
+    String contents = readPropertyFile(locations);
+    assertTrue(contents.contains("nearest_tag=v1.0\n"), "Nearest tag should be v1.0!");
+    assertTrue(contents.contains("commits_since_tag=0\n"), "Tag should be on HEAD!");
+    assertTrue(contents.contains("describe=v1.0\n"), "Description should be the tag!");
+  }
+
+  @Test
+  void dirtinessScopedToProject() throws Exception {
+    // Prepare
+    new TestProjectBuilder(projectDir)
+        .scopeToProject(true)
+        .dirtyCheck("FULL")
+        .addSubproject("a")
+        .addSubproject("b")
+        .build();
+    Files.writeString(projectDir.toPath().resolve("a/untracked.txt"), "not committed");
+
+    // Act (run createGitProperties in every project)
+    runner("createGitProperties").build();
+
+    // Assert
+    String a = Files.readString(subprojectPropertyFile("a"));
+    String b = Files.readString(subprojectPropertyFile("b"));
+    assertTrue(a.contains("has_uncommited_changes=true\n"), "Project a should be dirty!");
+    assertTrue(b.contains("has_uncommited_changes=false\n"), "Project b should be clean!");
+    assertTrue(b.contains("last_changed_sha="), "Last changed SHA should be generated!");
+  }
+
+  @Test
+  void parallelScan(@TempDir Path initScripts) throws Exception {
+    // Prepare (with enough tracked files to be checked in parallel, ignoring the files written by
+    // the build, and scanning again in every build so each number of threads is used)
+    Files.writeString(projectDir.toPath().resolve(".gitignore"), "build/\n.gradle/\n");
+    FileLocations locations =
+        new TestProjectBuilder(projectDir)
+            .trackedFiles(10_000)
+            .buildTimestamp("COMMIT_TIME")
+            .daemonCache(false)
+            .build();
+    // past the first batch of index entries sent to the workers
+    Path file = projectDir.toPath().resolve("fixture/tracked/d0050/f5000.txt");
+
+    // Act (scan sequentially and in parallel after each change to the file)
+    String clean = scanSequentialAndParallel(locations, initScripts);
+    // only the stat data changes, so the contents are confirmed
+    Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+    String touched = scanSequentialAndParallel(locations, initScripts);
+    // the stat data changes, and confirming the contents finds the change
+    Files.writeString(file, "changed\n");
+    String modified = scanSequentialAndParallel(locations, initScripts);
+    // a deleted file is a change without confirming it, so the other workers stop early
+    Files.delete(file);
+    String deleted = scanSequentialAndParallel(locations, initScripts);
+
+    // Assert
+    assertTrue(clean.contains("has_uncommited_changes=false\n"), "Should be clean at first!");
+    assertTrue(
+        touched.contains("has_uncommited_changes=false\n"),
+        "Touching a file without changing it should be clean!");
+    assertTrue(
+        modified.contains("has_uncommited_changes=true\n"), "Modified file should be dirty!");
+    assertTrue(deleted.contains("has_uncommited_changes=true\n"), "Deleted file should be dirty!");
+  }
+
+  @Test
+  void snapshotReusedUntilRepositoryChanges() throws Exception {
+    // Prepare (ignoring the files written by the build, so they don't change the repository)
+    Files.writeString(projectDir.toPath().resolve(".gitignore"), "build/\n.gradle/\n");
+    FileLocations locations = new TestProjectBuilder(projectDir).build();
+
+    // Act (run createGitProperties three times in the same daemon, changing a file before the last)
+    GradleRunner runner = runner("createGitProperties", "--rerun-tasks", "--info");
+    BuildResult first = runner.build();
+    BuildResult second = runner.build();
+    Files.writeString(locations.buildFile().toPath(), "\n", StandardOpenOption.APPEND);
+    BuildResult third = runner.build();
+
+    // Assert
+    String reused = "Reused the snapshot of the repository from a previous build";
+    assertFalse(first.getOutput().contains(reused), "First build should scan the repository!");
+    assertTrue(second.getOutput().contains(reused), "Unchanged repository should not be scanned!");
+    assertFalse(third.getOutput().contains(reused), "Changed repository should be scanned!");
+    assertTrue(
+        readPropertyFile(locations)
+            .contains("has_uncommited_changes=true\n"),
+        "Changed repository should be dirty!");
+  }
+
+  @Test
+  void snapshotUpdatedWhenIgnoreRulesChange() throws Exception {
+    // Prepare (with a tracked file in an ignored directory, which isn't watched)
+    Path gitignore = projectDir.toPath().resolve(".gitignore");
+    Files.writeString(gitignore, "build/\n.gradle/\ndata/\n");
+    Path data = Files.createDirectories(projectDir.toPath().resolve("data"));
+    Files.writeString(data.resolve("x.txt"), "data");
+    FileLocations locations = new TestProjectBuilder(projectDir).build();
+    git(projectDir, "add", "--force", "data/x.txt");
+    git(projectDir, "commit", "--no-gpg-sign", "-m", "track data");
+
+    // Act (stop ignoring the directory, then change the file in it, in the same daemon)
+    GradleRunner runner = runner("createGitProperties", "--rerun-tasks");
+    runner.build();
+    Files.writeString(gitignore, "build/\n.gradle/\n");
+    git(projectDir, "commit", "--no-gpg-sign", "-am", "stop ignoring data");
+    runner.build();
+    String clean = readPropertyFile(locations);
+    Files.writeString(data.resolve("x.txt"), "changed");
+    runner.build();
+    String dirty = readPropertyFile(locations);
+
+    // Assert
+    assertTrue(clean.contains("has_uncommited_changes=false\n"), "Should be clean after commit!");
+    assertTrue(
+        dirty.contains("has_uncommited_changes=true\n"),
+        "Change to a directory that is no longer ignored should be seen!");
+  }
+
+  @Test
+  void manifestOutputMode() throws Exception {
+    // Prepare
+    FileLocations locations = new TestProjectBuilder(projectDir).outputMode("MANIFEST").build();
+
+    // Act (run jar twice)
+    GradleRunner runner = runner("jar");
+    BuildResult first = runner.build();
+    BuildResult second = runner.build();
+
+    // Assert
+    File jar;
+    try (Stream<Path> jars = Files.list(projectDir.toPath().resolve("build/libs"))) {
+      jar = jars.findFirst().orElseThrow().toFile();
+    }
+    try (JarFile jarFile = new JarFile(jar)) {
+      Attributes attributes = jarFile.getManifest().getMainAttributes();
+      assertNotNull(attributes.getValue("Git-Sha"), "Manifest should have the SHA!");
+      assertNotNull(attributes.getValue("Git-Dirty"), "Manifest should have the dirty flag!");
+      assertNull(jarFile.getEntry("git-info.properties"), "Properties file should not be in jar!");
+    }
+    assertFalse(locations.expectedPropertyFile().exists(), "Properties file should not be made!");
+    assertEquals(TaskOutcome.SUCCESS, first.task(":createGitManifest").getOutcome());
+    assertEquals(TaskOutcome.UP_TO_DATE, second.task(":jar").getOutcome());
+  }
+
+  @Test
+  void onlySelectedFields() throws Exception {
+    // Prepare
+    FileLocations locations =
+        new TestProjectBuilder(projectDir).fields("BRANCH_NAME").buildTimestamp("OMITTED").build();
+
+    // Act (run createGitProperties)
+    runner("createGitProperties").build();
+
+    // Assert
+    Properties properties = new Properties();
+    try (Reader reader = Files.newBufferedReader(locations.expectedPropertyFile().toPath())) {
+      properties.load(reader);
+    }
+    assertEquals(
+        Set.of("git_sha", "branch_name"),
+        properties.stringPropertyNames(),
+        "Only the SHA and the selected fields should be generated!");
+  }
+
+  @Test
+  void trackedOnlyDirtyCheck() throws Exception {
+    // Prepare (ignoring the files written by the build, so only the untracked files are changes)
+    Files.writeString(projectDir.toPath().resolve(".gitignore"), "build/\n.gradle/\n");
+    FileLocations locations =
+        new TestProjectBuilder(projectDir).dirtyCheck("TRACKED").untrackedFiles(3).build();
+
+    // Act (run createGitProperties)
+    runner("createGitProperties").build();
+
+    // Assert
+    assertTrue(
+        readPropertyFile(locations)
+            .contains("has_uncommited_changes=false\n"),
+        "Untracked files should not be checked!");
+  }
+
+  @Test
+  void additionalOutputs() throws Exception {
+    // Prepare
+    new TestProjectBuilder(projectDir)
+        .buildTimestamp("COMMIT_TIME")
+        .addOutput("deploy", "JSON", "main", "deploy/git-info.json")
+        .addOutput("legacy", "GVERSION", "test", "legacy.properties")
+        .build();
+
+    // Act (process the resources of both source sets)
+    BuildResult result = runner("processResources", "processTestResources").build();
+
+    // Assert
+    Path resources = projectDir.toPath().resolve("build/resources");
+    String json = Files.readString(resources.resolve("main/deploy/git-info.json"));
+    String legacy = Files.readString(resources.resolve("test/legacy.properties"));
+    assertTrue(json.startsWith("{\"git_sha\":\""), "JSON output should be generated!");
+    assertTrue(legacy.contains("git_date="), "gversion output should be generated!");
+    assertFalse(
+        Files.exists(resources.resolve("main/legacy.properties")),
+        "Outputs should only be resources of their source set!");
+    assertEquals(TaskOutcome.SUCCESS, result.task(":createGitOutputs").getOutcome());
+  }
+
+  @Test
+  void processIsolation() throws Exception {
+    // Prepare
+    FileLocations locations =
+        new TestProjectBuilder(projectDir)
+            .workerIsolation("PROCESS")
+            .buildTimestamp("COMMIT_TIME")
+            .build();
+
+    // Act (run createGitProperties twice)
+    GradleRunner runner = runner("createGitProperties");
+    runner.build();
+    String first = readPropertyFile(locations);
+    BuildResult second = runner.build();
+
+    // Assert
+    assertTrue(first.contains("git_sha="), "Properties file should have the SHA!");
+    assertTrue(first.contains("has_uncommited_changes="), "Properties file should be complete!");
+    assertEquals(
+        TaskOutcome.SUCCESS,
+        second.task(":createGitProperties").getOutcome(),
+        "The daemon can't tell if the working tree changed, so the task should run every build!");
+    assertEquals(
+        first,
+        readPropertyFile(locations),
+        "Properties file should be the same for the same commit!");
+  }
+
+  @Test
+  void dirtyFingerprintFollowsChanges() throws Exception {
+    // Prepare (ignoring the files written by the build, so they aren't part of the changes)
+    Files.writeString(projectDir.toPath().resolve(".gitignore"), "build/\n.gradle/\n");
+    FileLocations locations =
+        new TestProjectBuilder(projectDir).dirtyFingerprint(true).dirtyCheck("FULL").build();
+    Path patch = projectDir.toPath().resolve("patch.txt");
+
+    // Act (run createGitProperties with one change, a different change, then the first again)
+    GradleRunner runner = runner("createGitProperties");
+    Files.writeString(patch, "first change");
+    runner.build();
+    String first = readPropertyFile(locations);
+    Files.writeString(patch, "second change");
+    BuildResult changed = runner.build();
+    String second = readPropertyFile(locations);
+    Files.writeString(patch, "first change");
+    runner.build();
+    String third = readPropertyFile(locations);
+
+    // Assert
+    assertTrue(first.contains("dirty_fingerprint="), "Fingerprint should be generated!");
+    assertEquals(TaskOutcome.SUCCESS, changed.task(":createGitProperties").getOutcome());
+    assertNotEquals(fingerprint(first), fingerprint(second), "Different changes, same hash!");
+    assertEquals(fingerprint(first), fingerprint(third), "Same changes, different hash!");
+  }
+
+  private static String fingerprint(String properties) {
+    return properties
+        .lines()
+        .filter(line -> line.startsWith("dirty_fingerprint="))
+        .findFirst()
+        .orElseThrow();
+  }
+
+  @Test
+  void shallowPartialClone(@TempDir File cloneParent) throws Exception {
+    // Prepare (a tag that is not in the last commit, which a shallow clone won't fetch)
+    Files.writeString(projectDir.toPath().resolve(".gitignore"), "build/\n.gradle/\n");
+    FileLocations locations =
+        new TestProjectBuilder(projectDir).describe(true).scopeToProject(true).build();
+    git(projectDir, "tag", "v1.0");
+    Files.writeString(projectDir.toPath().resolve("README.md"), "changed after the tag");
+    git(projectDir, "add", "-A");
+    git(projectDir, "commit", "--no-gpg-sign", "-m", "second commit");
+    git(projectDir, "config", "uploadpack.allowFilter", "true");
+    File clone = new File(cloneParent, "clone");
+    git(
+        cloneParent,
+        "clone",
+        "--depth=1",
+        "--filter=blob:none",
+        projectDir.toPath().toUri().toString(),
+        clone.getName());
+
+    // Act (run createGitProperties in the clone)
+    runner("createGitProperties").withProjectDir(clone).build();
+
+    // Assert
+    Path relative = projectDir.toPath().relativize(locations.expectedPropertyFile().toPath());
+    String contents = Files.readString(clone.toPath().resolve(relative));
+    assertTrue(contents.contains("git_sha="), "SHA should be generated!");
+    assertTrue(contents.contains("has_uncommited_changes=false\n"), "Clone should be clean!");
+    assertFalse(contents.contains("nearest_tag="), "Nearest tag can't be known!");
+    assertFalse(contents.contains("last_changed_sha="), "Last change can't be known!");
+  }
+
+  /**
+   * Creates a runner for the test project with the plugin under test, using the configuration cache
+   * so every scenario also checks that the plugin stays compatible with it.
+   */
+  private GradleRunner runner(String... args) {
+    List<String> arguments = new ArrayList<>(List.of(args));
+    arguments.add("--configuration-cache");
+    return GradleRunner.create()
+        .forwardOutput()
+        .withPluginClasspath()
+        .withArguments(arguments)
+        .withProjectDir(projectDir);
+  }
+
+  /**
+   * Runs createGitProperties with one scan thread and with four, and checks that they generate the
+   * same properties file.
+   *
+   * @return the generated properties file
+   */
+  private String scanSequentialAndParallel(FileLocations locations, Path initScripts)
+      throws IOException {
+    runner("createGitProperties", "--rerun-tasks", "--init-script", scanThreads(initScripts, 1))
+        .build();
+    String sequential = readPropertyFile(locations);
+    runner("createGitProperties", "--rerun-tasks", "--init-script", scanThreads(initScripts, 4))
+        .build();
+    String parallel = readPropertyFile(locations);
+    assertEquals(sequential, parallel, "Parallel scan should match the sequential scan!");
+    return parallel;
+  }
+
+  /** Writes an init script that sets the number of scan threads, without changing the project. */
+  private static String scanThreads(Path initScripts, int threads) throws IOException {
+    Path script = initScripts.resolve("scan-threads-" + threads + ".gradle");
+    Files.writeString(
+        script,
+        String.format(
+            """
+            allprojects {
+              afterEvaluate {
+                git_details.scanThreads = %d
+              }
+            }
+            """,
+            threads));
+    return script.toString();
+  }
+
+  private static String readPropertyFile(FileLocations locations) throws IOException {
+    return Files.readString(locations.expectedPropertyFile().toPath());
+  }
+
+  private static void git(File directory, String... args) throws Exception {
+    List<String> command = new ArrayList<>(List.of("git"));
+    command.addAll(List.of(args));
+    Process process = new ProcessBuilder(command).directory(directory).inheritIO().start();
+    assertEquals(0, process.waitFor(), "git " + String.join(" ", args) + " failed!");
+  }
+
+  private Path subprojectPropertyFile(String subproject) {
+    return projectDir
+        .toPath()
+        .resolve(Path.of(subproject, "build", "generated", "resources", "git_details"))
+        .resolve("git-info.properties");
+  }
+
   @Test
   void noGitRepository() throws Exception {
     // Prepare
@@ -84,5 +595,8 @@ class GitVersionPluginFunctionalTest {
     assertTrue(
         result.getOutput().contains("A fundamental assumption of git state was broken!"),
         "Should have the exception message in output!");
+    assertTrue(
+        result.getOutput().contains("Failed to open the repository"),
+        "Should have the reason for the failure in output!");
   }
 }
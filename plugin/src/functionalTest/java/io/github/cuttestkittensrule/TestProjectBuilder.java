@@ -17,12 +17,15 @@ package io.github.cuttestkittensrule;
 
 import java.io.File;
 import java.io.FileWriter;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import org.gradle.internal.impldep.org.apache.commons.io.FilenameUtils;
 import org.junit.jupiter.api.Assumptions;
@@ -30,10 +33,28 @@ import org.junit.jupiter.api.Assumptions;
 public class TestProjectBuilder {
   private String propertyPath;
   private Boolean gVersionCompatibility;
+  private String buildTimestamp;
+  private Boolean generateJavaClass;
+  private Boolean timingReport;
+  private Boolean describe;
+  private Boolean scopeToProject;
+  private Integer scanThreads;
+  private Boolean dirtyFingerprint;
+  private Boolean daemonCache;
+  private String outputMode;
+  private List<String> fields;
+  private String workerIsolation;
+  private String dirtyCheck;
   private String mainClass;
   private boolean createGitRepo = true;
+  private int trackedFiles;
+  private int untrackedFiles;
+  private int historyCommits;
+  private boolean dirty;
   private final File projectDir;
   private final Map<String, List<URL>> srcFiles = new HashMap<>();
+  private final List<String> subprojects = new ArrayList<>();
+  private final List<String> outputs = new ArrayList<>();
 
   public TestProjectBuilder(File projectDir) {
     this.projectDir = projectDir;
@@ -98,6 +119,232 @@ public class TestProjectBuilder {
     return this;
   }
 
+  /**
+   * Sets where the build date should come from. If this is not specified, the default
+   * configuration will be used.
+   *
+   * @param buildTimestamp The name of the build timestamp mode
+   * @return {@code this} for chaining
+   * @throws NullPointerException if {@code buildTimestamp} is {@code null}
+   */
+  public TestProjectBuilder buildTimestamp(String buildTimestamp) {
+    this.buildTimestamp =
+        Objects.requireNonNull(buildTimestamp, "Please pass a non-null build timestamp");
+    return this;
+  }
+
+  /**
+   * Sets if a Java class with the git details should be generated. If this is not specified, the
+   * default configuration will be used.
+   *
+   * @param generateJavaClass If a Java class should be generated
+   * @return {@code this} for chaining
+   */
+  public TestProjectBuilder generateJavaClass(boolean generateJavaClass) {
+    this.generateJavaClass = generateJavaClass;
+    return this;
+  }
+
+  /**
+   * Sets if a timing report should be written. If this is not specified, the default configuration
+   * will be used.
+   *
+   * @param timingReport If a timing report should be written
+   * @return {@code this} for chaining
+   */
+  public TestProjectBuilder timingReport(boolean timingReport) {
+    this.timingReport = timingReport;
+    return this;
+  }
+
+  /**
+   * Sets if the nearest tag should be looked up. If this is not specified, the default
+   * configuration will be used.
+   *
+   * @param describe If the nearest tag should be looked up
+   * @return {@code this} for chaining
+   */
+  public TestProjectBuilder describe(boolean describe) {
+    this.describe = describe;
+    return this;
+  }
+
+  /**
+   * Sets if only the project directory should be checked for uncommitted changes. If this is not
+   * specified, the default configuration will be used.
+   *
+   * @param scopeToProject If only the project directory should be checked
+   * @return {@code this} for chaining
+   */
+  public TestProjectBuilder scopeToProject(boolean scopeToProject) {
+    this.scopeToProject = scopeToProject;
+    return this;
+  }
+
+  /**
+   * Sets the number of threads that check tracked files for changes. If this is not specified, the
+   * default configuration will be used.
+   *
+   * @param scanThreads The number of threads
+   * @return {@code this} for chaining
+   */
+  public TestProjectBuilder scanThreads(int scanThreads) {
+    this.scanThreads = scanThreads;
+    return this;
+  }
+
+  /**
+   * Sets if a hash of the uncommitted changes should be generated. If this is not specified, the
+   * default configuration will be used.
+   *
+   * @param dirtyFingerprint If the uncommitted changes should be hashed
+   * @return {@code this} for chaining
+   */
+  public TestProjectBuilder dirtyFingerprint(boolean dirtyFingerprint) {
+    this.dirtyFingerprint = dirtyFingerprint;
+    return this;
+  }
+
+  /**
+   * Sets if the snapshot of the repository can be reused by later builds in the same daemon. If
+   * this is not specified, the default configuration will be used.
+   *
+   * @param daemonCache If the snapshot can be reused
+   * @return {@code this} for chaining
+   */
+  public TestProjectBuilder daemonCache(boolean daemonCache) {
+    this.daemonCache = daemonCache;
+    return this;
+  }
+
+  /**
+   * Sets where the git details are written. If this is not specified, the default configuration
+   * will be used.
+   *
+   * @param outputMode The name of the output mode
+   * @return {@code this} for chaining
+   */
+  public TestProjectBuilder outputMode(String outputMode) {
+    this.outputMode = outputMode;
+    return this;
+  }
+
+  /**
+   * Adds generated files to the initial commit, spread over directories of 100 files each, under
+   * {@code fixture/tracked}.
+   *
+   * @param count The number of files
+   * @return {@code this} for chaining
+   */
+  public TestProjectBuilder trackedFiles(int count) {
+    this.trackedFiles = count;
+    return this;
+  }
+
+  /**
+   * Adds generated files that are not committed, spread over directories of 100 files each, under
+   * {@code fixture/untracked}.
+   *
+   * @param count The number of files
+   * @return {@code this} for chaining
+   */
+  public TestProjectBuilder untrackedFiles(int count) {
+    this.untrackedFiles = count;
+    return this;
+  }
+
+  /**
+   * Adds empty commits after the initial commit, so the history is deep. The commits are written
+   * with {@code git fast-import}, so even long histories are quick to create.
+   *
+   * @param commits The number of commits after the initial commit
+   * @return {@code this} for chaining
+   */
+  public TestProjectBuilder history(int commits) {
+    this.historyCommits = commits;
+    return this;
+  }
+
+  /**
+   * Modifies a committed file after the commits are made, so the working tree is dirty.
+   *
+   * @return {@code this} for chaining
+   */
+  public TestProjectBuilder dirty() {
+    this.dirty = true;
+    return this;
+  }
+
+  /**
+   * Sets the details to generate besides the SHA. If this is not specified, every detail is
+   * generated.
+   *
+   * @param fields The names of the fields
+   * @return {@code this} for chaining
+   */
+  public TestProjectBuilder fields(String... fields) {
+    this.fields = List.of(fields);
+    return this;
+  }
+
+  /**
+   * Sets how the repository is scanned and the files are written. If this is not specified, the
+   * default configuration will be used.
+   *
+   * @param workerIsolation The name of the worker isolation
+   * @return {@code this} for chaining
+   */
+  public TestProjectBuilder workerIsolation(String workerIsolation) {
+    this.workerIsolation = workerIsolation;
+    return this;
+  }
+
+  /**
+   * Sets which paths of the working tree are checked for uncommitted changes. If this is not
+   * specified, the default configuration will be used.
+   *
+   * @param dirtyCheck The name of the dirty check level
+   * @return {@code this} for chaining
+   */
+  public TestProjectBuilder dirtyCheck(String dirtyCheck) {
+    this.dirtyCheck = dirtyCheck;
+    return this;
+  }
+
+  /**
+   * Add a file to {@code outputs}.
+   *
+   * @param name The name of the output
+   * @param format The name of the format of the file
+   * @param sourceSet The name of the source set the file is a resource of
+   * @param path The path of the resource file
+   * @return {@code this} for chaining
+   */
+  public TestProjectBuilder addOutput(String name, String format, String sourceSet, String path) {
+    outputs.add(
+        String.format(
+            """
+                %s {
+                  format = "%s"
+                  sourceSet = "%s"
+                  path = "%s"
+                }
+            """,
+            name, format, sourceSet, path));
+    return this;
+  }
+
+  /**
+   * Add a subproject that applies the plugin with the same configuration as the root project.
+   *
+   * @param name The name of the subproject, which is also its directory
+   * @return {@code this} for chaining
+   */
+  public TestProjectBuilder addSubproject(String name) {
+    subprojects.add(Objects.requireNonNull(name, "Please pass a non-null subproject name"));
+    return this;
+  }
+
   private static final String pluginStr =
       """
             plugins {
@@ -118,21 +365,95 @@ public class TestProjectBuilder {
     return new FileLocations(buildFile, settingsFile, propertyFile);
   }
 
-  public FileLocations build() throws IOException, InterruptedException {
-    FileLocations locations = createFileLocations();
-    writeString(locations.settingsFile(), "");
-    StringBuilder buildString = new StringBuilder(pluginStr);
-    if (propertyPath != null || gVersionCompatibility != null) {
-      buildString.append("git_details {").append(System.lineSeparator());
+  private String extensionString() {
+    StringBuilder extensionString = new StringBuilder();
+    if (propertyPath != null
+        || gVersionCompatibility != null
+        || buildTimestamp != null
+        || generateJavaClass != null
+        || timingReport != null
+        || describe != null
+        || scopeToProject != null
+        || scanThreads != null
+        || dirtyFingerprint != null
+        || daemonCache != null
+        || outputMode != null
+        || fields != null
+        || workerIsolation != null
+        || dirtyCheck != null
+        || !outputs.isEmpty()) {
+      extensionString.append("git_details {").append(System.lineSeparator());
       if (propertyPath != null) {
-        buildString.append(String.format("  resourceFilePath = \"%s\"%n", propertyPath));
+        extensionString.append(String.format("  resourceFilePath = \"%s\"%n", propertyPath));
       }
       if (gVersionCompatibility != null) {
-        buildString.append(
+        extensionString.append(
             String.format("  gversionBackwardCompatibility = %b%n", gVersionCompatibility));
       }
-      buildString.append("}").append(System.lineSeparator());
+      if (buildTimestamp != null) {
+        extensionString.append(String.format("  buildTimestamp = \"%s\"%n", buildTimestamp));
+      }
+      if (generateJavaClass != null) {
+        extensionString.append(String.format("  generateJavaClass = %b%n", generateJavaClass));
+      }
+      if (timingReport != null) {
+        extensionString.append(String.format("  timingReport = %b%n", timingReport));
+      }
+      if (describe != null) {
+        extensionString.append(String.format("  describe = %b%n", describe));
+      }
+      if (scopeToProject != null) {
+        extensionString.append(String.format("  scopeToProject = %b%n", scopeToProject));
+      }
+      if (scanThreads != null) {
+        extensionString.append(String.format("  scanThreads = %d%n", scanThreads));
+      }
+      if (dirtyFingerprint != null) {
+        extensionString.append(String.format("  dirtyFingerprint = %b%n", dirtyFingerprint));
+      }
+      if (daemonCache != null) {
+        extensionString.append(String.format("  daemonCache = %b%n", daemonCache));
+      }
+      if (outputMode != null) {
+        extensionString.append(String.format("  outputMode = \"%s\"%n", outputMode));
+      }
+      if (fields != null) {
+        StringJoiner joiner = new StringJoiner(", ", "[", "]");
+        fields.forEach(
+            field -> joiner.add("io.github.cuttestkittensrule.GitDetailsPlugin.Field." + field));
+        extensionString.append(String.format("  fields = %s%n", joiner));
+      }
+      if (workerIsolation != null) {
+        extensionString.append(String.format("  workerIsolation = \"%s\"%n", workerIsolation));
+      }
+      if (dirtyCheck != null) {
+        extensionString.append(String.format("  dirtyCheck = \"%s\"%n", dirtyCheck));
+      }
+      if (!outputs.isEmpty()) {
+        extensionString.append("  outputs {").append(System.lineSeparator());
+        outputs.forEach(extensionString::append);
+        extensionString.append("  }").append(System.lineSeparator());
+      }
+      extensionString.append("}").append(System.lineSeparator());
+    }
+    return extensionString.toString();
+  }
+
+  public FileLocations build() throws IOException, InterruptedException {
+    FileLocations locations = createFileLocations();
+    String extensionString = extensionString();
+    StringBuilder settingsString = new StringBuilder();
+    for (String subproject : subprojects) {
+      settingsString.append(String.format("include('%s')%n", subproject));
+      File subprojectDir = new File(projectDir, subproject);
+      if (!subprojectDir.mkdirs()) {
+        throw new RuntimeException(
+            String.format("Could not create folder for subproject \"%s\"!", subproject));
+      }
+      writeString(new File(subprojectDir, "build.gradle"), pluginStr + extensionString);
     }
+    writeString(locations.settingsFile(), settingsString.toString());
+    StringBuilder buildString = new StringBuilder(pluginStr).append(extensionString);
     if (mainClass != null) {
       String toAdd =
           String.format(
@@ -174,18 +495,24 @@ public class TestProjectBuilder {
         }
       }
     }
+    writeFixtureFiles("fixture/tracked", trackedFiles);
     if (createGitRepo) {
       try {
         // init git repository in the temporary directory
         new ProcessBuilder().directory(projectDir).command("git", "init").start().waitFor();
         // add the build.gradle and the settings.gradle files
         new ProcessBuilder().directory(projectDir).command("git", "add", "-A").start().waitFor();
-        // commit those files (without signatures since we don't need them)
+        // commit those files (without signatures since we don't need them), discarding the list
+        // of committed files, which fills the pipe and blocks git when there are many of them
         new ProcessBuilder()
             .directory(projectDir)
             .command("git", "commit", "--no-gpg-sign", "-m", "initial commit")
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
             .start()
             .waitFor();
+        if (historyCommits > 0) {
+          writeHistory();
+        }
       } catch (IOException e) {
         // if we had an IOException, we couldn't find git, or it fails. Either way, abort the test
         Assumptions.abort(
@@ -195,9 +522,54 @@ public class TestProjectBuilder {
         throw e;
       }
     }
+    writeFixtureFiles("fixture/untracked", untrackedFiles);
+    if (dirty) {
+      Files.writeString(
+          locations.buildFile().toPath(), "// uncommitted change\n", StandardOpenOption.APPEND);
+    }
     return locations;
   }
 
+  private void writeFixtureFiles(String directory, int count) throws IOException {
+    for (int i = 0; i < count; i++) {
+      String path = String.format("%s/d%04d/f%04d.txt", directory, i / 100, i);
+      Path file = projectDir.toPath().resolve(path);
+      Files.createDirectories(file.getParent());
+      Files.writeString(file, "file " + i + "\n");
+    }
+  }
+
+  /** Appends empty commits to the checked out branch with {@code git fast-import}. */
+  private void writeHistory() throws IOException, InterruptedException {
+    Process symbolicRef =
+        new ProcessBuilder().directory(projectDir).command("git", "symbolic-ref", "HEAD").start();
+    String branch = new String(symbolicRef.getInputStream().readAllBytes()).trim();
+    symbolicRef.waitFor();
+    Process fastImport =
+        new ProcessBuilder()
+            .directory(projectDir)
+            .command("git", "fast-import", "--quiet")
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .start();
+    try (Writer writer =
+        new BufferedWriter(new OutputStreamWriter(fastImport.getOutputStream()))) {
+      for (int i = 1; i <= historyCommits; i++) {
+        String message = "commit " + i;
+        writer.write(String.format("commit %s%n", branch));
+        long time = 1_600_000_000L + i;
+        writer.write(String.format("committer Test <test@example.com> %d +0000%n", time));
+        writer.write(String.format("data %d%n%s%n", message.length(), message));
+        if (i == 1) {
+          // continue from the initial commit instead of starting a new history
+          writer.write(String.format("from %s^0%n", branch));
+        }
+      }
+    }
+    if (fastImport.waitFor() != 0) {
+      throw new IOException("git fast-import failed!");
+    }
+  }
+
   private void writeString(File file, String string) throws IOException {
     try (Writer writer = new FileWriter(file)) {
       writer.write(string);
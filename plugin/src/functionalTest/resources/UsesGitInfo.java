@@ -0,0 +1,31 @@
+package io.github.cuttestkittensrule;
+
+import git_details.GitInfo;
+import java.time.Instant;
+
+class UsesGitInfo {
+    public static void main(String[] args) throws Exception {
+        if (GitInfo.GIT_SHA.isBlank()) {
+            throw new RuntimeException("GIT_SHA is blank!");
+        }
+        if (GitInfo.GIT_SHA.length() != 40) {
+            throw new RuntimeException(String.format("Expected a 40 character sha, but was \"%s\"", GitInfo.GIT_SHA));
+        }
+        if (GitInfo.COMMIT_TIME_MILLIS == Long.MIN_VALUE) {
+            throw new RuntimeException("Should have a valid commit time!");
+        }
+        if (Instant.ofEpochMilli(GitInfo.COMMIT_TIME_MILLIS).isAfter(Instant.now())) {
+            throw new RuntimeException("Commit time is after the present!");
+        }
+        if (GitInfo.BUILD_TIME_MILLIS == Long.MIN_VALUE) {
+            throw new RuntimeException("Should have a valid build time!");
+        }
+        if (Instant.ofEpochMilli(GitInfo.BUILD_TIME_MILLIS).isAfter(Instant.now())) {
+            throw new RuntimeException("Build time is after the present!");
+        }
+        if (GitInfo.BRANCH_NAME == null) {
+            System.err.println("WARNING: no branch name!");
+        }
+        System.out.println("dirty: " + GitInfo.DIRTY);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Creates the synthetic repositories that are benchmarked, matching the ones in {@code
+ * native/benches/scan.rs}. Each one has a deep history and a flat set of tracked files, and is
+ * created the first time it is needed, then reused by later runs.
+ */
+final class BenchmarkRepositories {
+  /** The directory that the repositories are created in. */
+  static final String DIRECTORY_PROPERTY = "git_details.bench.dir";
+
+  static final int HISTORY_DEPTH = 1_000;
+  private static final int FILES_PER_DIR = 1_000;
+  private static final String CONTENTS = "benchmark\n";
+
+  /** If the working tree of a benchmark repository has uncommitted changes. */
+  enum TreeState {
+    CLEAN,
+    /** The last file in the index is modified; the worst case for stopping at the first change. */
+    DIRTY
+  }
+
+  private BenchmarkRepositories() {}
+
+  /**
+   * Get the benchmark repository with {@code files} tracked files, creating it if it does not
+   * exist.
+   *
+   * @param files The number of tracked files
+   * @param state If the working tree should have uncommitted changes
+   * @return the root of the repository
+   */
+  static Path get(int files, TreeState state) throws IOException, InterruptedException {
+    Path root =
+        Path.of(System.getProperty(DIRECTORY_PROPERTY, System.getProperty("java.io.tmpdir")))
+            .resolve(String.format("%d-files-%s", files, state.name().toLowerCase()));
+    // only written once the repository is complete, so an interrupted run starts over
+    Path marker = root.resolve(".git/bench-complete");
+    if (!Files.exists(marker)) {
+      deleteRecursively(root);
+      create(root, files);
+      if (state == TreeState.DIRTY) {
+        Files.writeString(root.resolve(filePath(files - 1)), "changed\n");
+      }
+      Files.createFile(marker);
+    }
+    return root;
+  }
+
+  /** The path of the {@code i}th tracked file. Zero padded, so that the index is in order. */
+  private static String filePath(int i) {
+    return String.format("dir%04d/file%07d.txt", i / FILES_PER_DIR, i);
+  }
+
+  private static void create(Path root, int files) throws IOException, InterruptedException {
+    Files.createDirectories(root);
+    git(root, "init", "-q", "-b", "main");
+
+    // a chain of commits that each change one file, imported in one go
+    Process fastImport =
+        new ProcessBuilder("git", "fast-import", "--quiet")
+            .directory(root.toFile())
+            .inheritIO()
+            .redirectInput(ProcessBuilder.Redirect.PIPE)
+            .start();
+    try (OutputStream os = fastImport.getOutputStream()) {
+      for (int depth = 0; depth < HISTORY_DEPTH; depth++) {
+        String contents = depth + "\n";
+        String commit =
+            String.format(
+                "commit refs/heads/main\n"
+                    + "committer Benchmark <bench@example.com> 1700000000 +0000\n"
+                    + "data 7\nhistory\n"
+                    + "M 100644 inline history.txt\n"
+                    + "data %d\n%s\n",
+                contents.length(), contents);
+        os.write(commit.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    if (fastImport.waitFor() != 0) {
+      throw new IOException("git fast-import failed");
+    }
+
+    // the last commit has every tracked file
+    Files.writeString(root.resolve("history.txt"), HISTORY_DEPTH + "\n");
+    for (int i = 0; i < files; i++) {
+      Path file = root.resolve(filePath(i));
+      if (i % FILES_PER_DIR == 0) {
+        Files.createDirectories(file.getParent());
+      }
+      Files.writeString(file, CONTENTS);
+    }
+    git(root, "reset", "-q");
+    git(root, "add", "-A");
+    git(
+        root,
+        "-c",
+        "user.name=Benchmark",
+        "-c",
+        "user.email=bench@example.com",
+        "commit",
+        "-q",
+        "--no-gpg-sign",
+        "-m",
+        "files");
+  }
+
+  private static void git(Path root, String... args) throws IOException, InterruptedException {
+    String[] command = new String[args.length + 1];
+    command[0] = "git";
+    System.arraycopy(args, 0, command, 1, args.length);
+    int exitCode =
+        new ProcessBuilder(command).directory(root.toFile()).inheritIO().start().waitFor();
+    if (exitCode != 0) {
+      throw new IOException(String.format("\"git %s\" failed", String.join(" ", args)));
+    }
+  }
+
+  private static void deleteRecursively(Path root) throws IOException {
+    if (!Files.exists(root)) {
+      return;
+    }
+    try (Stream<Path> paths = Files.walk(root)) {
+      paths
+          .sorted(Comparator.reverseOrder())
+          .forEach(
+              path -> {
+                try {
+                  Files.delete(path);
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+              });
+    }
+  }
+}
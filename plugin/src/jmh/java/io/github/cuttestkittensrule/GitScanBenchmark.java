@@ -0,0 +1,61 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures scanning a repository through the JNI boundary, end to end. The phases inside of the
+ * native library are measured separately by {@code native/benches/scan.rs}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GitScanBenchmark {
+  @Param({"1000", "100000", "1000000"})
+  public int files;
+
+  @Param({"clean", "dirty"})
+  public String state;
+
+  @Param({"1", "4"})
+  public int threads;
+
+  private String repository;
+
+  @Setup
+  public void setUp() throws IOException, InterruptedException {
+    BenchmarkRepositories.TreeState treeState =
+        BenchmarkRepositories.TreeState.valueOf(state.toUpperCase(Locale.ROOT));
+    repository = BenchmarkRepositories.get(files, treeState).toString();
+  }
+
+  @Benchmark
+  public void snapshot(Blackhole blackhole) {
+    blackhole.consume(GitDetailsJNI.snapshot(repository, null, 0, threads, null));
+  }
+}
@@ -0,0 +1,70 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** Measures writing the properties file, which does not depend on the size of the repository. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PropertiesWriteBenchmark {
+  private static final GitSnapshot SNAPSHOT =
+      new GitSnapshot(
+          "0123456789abcdef0123456789abcdef01234567",
+          "main",
+          OffsetDateTime.of(2025, 1, 2, 3, 4, 5, 0, ZoneOffset.ofHours(1)),
+          false,
+          null,
+          null,
+          null,
+          null);
+
+  private Path output;
+
+  @Setup
+  public void setUp() throws IOException {
+    output = Files.createTempFile("git-info", ".properties");
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(output);
+  }
+
+  @Benchmark
+  public String render() {
+    return PropertiesRenderer.render(SNAPSHOT, false, SNAPSHOT.commitTime());
+  }
+
+  @Benchmark
+  public void write() throws IOException {
+    Files.writeString(output, PropertiesRenderer.render(SNAPSHOT, false, SNAPSHOT.commitTime()));
+  }
+}
@@ -0,0 +1,251 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import io.github.cuttestkittensrule.GitDetailsPlugin.BuildTimestamp;
+import io.github.cuttestkittensrule.GitDetailsPlugin.Field;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Locale;
+import java.util.StringJoiner;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.SetProperty;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+/**
+ * Scans the repository and writes a generated file, in a worker. The task that submits it doesn't
+ * hold its worker lease while it waits, so other work can run in the meantime. With process
+ * isolation, the native library is only loaded in the worker process, so a crash in libgit2 fails
+ * the task instead of the daemon.
+ */
+abstract class GenerateGitDetails implements WorkAction<GenerateGitDetails.Parameters> {
+  private static final Logger LOGGER = Logging.getLogger(GenerateGitDetails.class);
+
+  /**
+   * The recorded state of a working tree that wasn't checked, because the native library couldn't
+   * be loaded.
+   */
+  static final String UNCHECKED_WORKING_TREE = "unchecked";
+
+  /** A file generated from the snapshot of the repository. */
+  interface Output extends Serializable {
+    /**
+     * Write the file, unless it already has the same contents.
+     *
+     * @param snapshot The snapshot of the repository, with only the requested details
+     * @param buildDate The build date, or {@code null} if there is no build date
+     * @throws RuntimeException if the file could not be written
+     */
+    void write(GitSnapshot snapshot, OffsetDateTime buildDate);
+  }
+
+  interface Parameters extends WorkParameters {
+    /**
+     * The service that shares snapshots between the tasks of the build, which is not present in a
+     * worker process. Without it, the repository is scanned by the worker.
+     */
+    Property<GitSnapshotService> getSnapshotService();
+
+    DirectoryProperty getRepositoryDirectory();
+
+    Property<String> getScope();
+
+    /** The option flags (see {@link GitDetailsJNI}). */
+    Property<Integer> getOptions();
+
+    Property<Integer> getScanThreads();
+
+    DirectoryProperty getCacheDirectory();
+
+    Property<Boolean> getDaemonCache();
+
+    SetProperty<Field> getFields();
+
+    Property<BuildTimestamp> getBuildTimestamp();
+
+    Property<Long> getSourceDateEpoch();
+
+    Property<Output> getOutput();
+
+    /** The path of the task, for the timing report. */
+    Property<String> getTaskPath();
+
+    RegularFileProperty getTimingReport();
+
+    /**
+     * Where to record the state of the working tree that the file was written from, if the file
+     * depends on it (see {@link GitDetailsTask#workingTreeUnchanged()}).
+     */
+    RegularFileProperty getWorkingTreeState();
+  }
+
+  public GenerateGitDetails() {}
+
+  @Override
+  public void execute() {
+    GitSnapshot snapshot = snapshot();
+    long start = System.nanoTime();
+    getParameters()
+        .getOutput()
+        .get()
+        .write(snapshot.select(getParameters().getFields().get()), buildDate(snapshot));
+    long writeNanos = System.nanoTime() - start;
+    if (getParameters().getWorkingTreeState().isPresent()) {
+      Path stateFile = getParameters().getWorkingTreeState().get().getAsFile().toPath();
+      try {
+        Files.createDirectories(stateFile.getParent());
+        Files.writeString(stateFile, workingTreeState(snapshot), StandardCharsets.UTF_8);
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to record the state of the working tree!", e);
+      }
+    }
+    reportTimings(snapshot, writeNanos);
+  }
+
+  /**
+   * Describe the state of the working tree in a snapshot, so it can be compared to a later one.
+   *
+   * @param snapshot The snapshot of the repository
+   * @return the dirty flag and the fingerprint of the uncommitted changes, or {@link
+   *     #UNCHECKED_WORKING_TREE} if the working tree wasn't checked
+   */
+  static String workingTreeState(GitSnapshot snapshot) {
+    if (snapshot.dirty() == null) {
+      return UNCHECKED_WORKING_TREE;
+    }
+    return snapshot.dirty() + " " + snapshot.dirtyFingerprint();
+  }
+
+  private GitSnapshot snapshot() {
+    Parameters parameters = getParameters();
+    File repoRoot = parameters.getRepositoryDirectory().get().getAsFile();
+    String scope = parameters.getScope().getOrNull();
+    int options = parameters.getOptions().get();
+    int threads = parameters.getScanThreads().get();
+    File cacheDirectory = parameters.getCacheDirectory().getAsFile().getOrNull();
+    boolean daemonCache = parameters.getDaemonCache().get();
+    if (parameters.getSnapshotService().isPresent()) {
+      return parameters
+          .getSnapshotService()
+          .get()
+          .snapshot(repoRoot, scope, options, threads, cacheDirectory, daemonCache);
+    }
+    return GitSnapshotResolver.scan(
+        new GitSnapshotResolver.ScanKey(repoRoot.getAbsoluteFile(), scope, options),
+        threads,
+        cacheDirectory,
+        daemonCache);
+  }
+
+  /**
+   * Get the build date, according to the configured {@link BuildTimestamp}.
+   *
+   * @param snapshot The snapshot of the repository
+   * @return the build date, or {@code null} if there is no build date
+   */
+  private OffsetDateTime buildDate(GitSnapshot snapshot) {
+    switch (getParameters().getBuildTimestamp().get()) {
+      case WALL_CLOCK:
+        return OffsetDateTime.now();
+      case COMMIT_TIME:
+        return snapshot.commitTime();
+      case SOURCE_DATE_EPOCH:
+        if (getParameters().getSourceDateEpoch().isPresent()) {
+          return OffsetDateTime.ofInstant(
+              Instant.ofEpochSecond(getParameters().getSourceDateEpoch().get()), ZoneOffset.UTC);
+        }
+        return snapshot.commitTime();
+      case OMITTED:
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Log how long scanning the repository and writing the generated file took, and write the timing
+   * report if it is enabled.
+   *
+   * @param snapshot The snapshot of the repository
+   * @param writeNanos How long writing the generated file took
+   */
+  private void reportTimings(GitSnapshot snapshot, long writeNanos) {
+    ScanStats stats = snapshot.stats();
+    if (stats == null) {
+      LOGGER.info("Reused the snapshot of the repository from a previous build");
+      return;
+    }
+    LOGGER.info(
+        "Scanning the repository took {} ms (open {} ms, HEAD {} ms, describe {} ms, status {} ms,"
+            + " JNI conversion {} ms); {} index entries, {} directories and {} untracked"
+            + " directories were scanned",
+        millis(stats.totalNanos()),
+        millis(stats.openNanos()),
+        millis(stats.headNanos()),
+        millis(stats.describeNanos()),
+        millis(stats.statusNanos()),
+        millis(stats.conversionNanos()),
+        stats.entriesScanned(),
+        stats.dirsVisited(),
+        stats.untrackedDirsVisited());
+    LOGGER.info("Writing the generated file took {} ms", millis(writeNanos));
+    if (!getParameters().getTimingReport().isPresent()) {
+      return;
+    }
+    StringJoiner report = new StringJoiner(",\n", "{\n", "\n}\n");
+    report.add(jsonField("task", JsonRenderer.quote(getParameters().getTaskPath().get())));
+    report.add(
+        jsonField(
+            "repository",
+            JsonRenderer.quote(
+                getParameters().getRepositoryDirectory().get().getAsFile().getAbsolutePath())));
+    report.add(jsonField("openNanos", stats.openNanos()));
+    report.add(jsonField("headNanos", stats.headNanos()));
+    report.add(jsonField("describeNanos", stats.describeNanos()));
+    report.add(jsonField("statusNanos", stats.statusNanos()));
+    report.add(jsonField("conversionNanos", stats.conversionNanos()));
+    report.add(jsonField("writeNanos", writeNanos));
+    report.add(jsonField("entriesScanned", stats.entriesScanned()));
+    report.add(jsonField("dirsVisited", stats.dirsVisited()));
+    report.add(jsonField("untrackedDirsVisited", stats.untrackedDirsVisited()));
+    Path reportFile = getParameters().getTimingReport().get().getAsFile().toPath();
+    try {
+      Files.createDirectories(reportFile.getParent());
+      Files.writeString(reportFile, report.toString(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to write timing report!", e);
+    }
+  }
+
+  private static String millis(long nanos) {
+    return String.format(Locale.ROOT, "%.2f", nanos / 1_000_000.0);
+  }
+
+  private static String jsonField(String name, Object value) {
+    return "  \"" + name + "\": " + value;
+  }
+}
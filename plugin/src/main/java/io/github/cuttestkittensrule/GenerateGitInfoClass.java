@@ -0,0 +1,173 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Generates a Java class with the git details as constants. Since the constants are inlined when
+ * code that uses them is compiled, reading them at runtime doesn't need any I/O or parsing.
+ */
+@CacheableTask
+abstract class GenerateGitInfoClass extends GitDetailsTask {
+  public GenerateGitInfoClass() {}
+
+  /** The fully qualified name of the generated class. */
+  @Input
+  abstract Property<String> getClassName();
+
+  @OutputDirectory
+  abstract DirectoryProperty getOutputDirectory();
+
+  @TaskAction
+  void createGitInfoClass() {
+    generate(new ClassOutput(getOutputDirectory().get().getAsFile(), getClassName().get()));
+  }
+
+  /** The generated class, which is the only file in the output directory. */
+  private record ClassOutput(File outputDirectory, String className)
+      implements GenerateGitDetails.Output {
+    @Override
+    public void write(GitSnapshot snapshot, OffsetDateTime buildDate) {
+      int lastDot = className.lastIndexOf('.');
+      String packageName = lastDot < 0 ? "" : className.substring(0, lastDot);
+      String simpleName = className.substring(lastDot + 1);
+
+      Path outputPath = outputDirectory.toPath();
+      Path sourceFile =
+          outputPath.resolve(packageName.replace('.', '/')).resolve(simpleName + ".java");
+      try {
+        // remove the class generated with a previous class name
+        deleteOtherFiles(outputPath, sourceFile);
+        GeneratedFiles.writeIfChanged(
+            sourceFile, render(packageName, simpleName, snapshot, buildDate));
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to write git info class!", e);
+      }
+    }
+  }
+
+  private static void deleteOtherFiles(Path directory, Path keep) throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+    try (Stream<Path> paths = Files.walk(directory)) {
+      for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+        if (path.equals(directory) || keep.startsWith(path)) {
+          continue;
+        }
+        Files.delete(path);
+      }
+    }
+  }
+
+  private static String render(
+      String packageName, String simpleName, GitSnapshot snapshot, OffsetDateTime buildDate) {
+    StringBuilder builder = new StringBuilder();
+    if (!packageName.isEmpty()) {
+      builder.append("package ").append(packageName).append(";\n\n");
+    }
+    builder
+        .append("/**\n")
+        .append(" * Details about the state of git when the code was built. Generated by the\n")
+        .append(" * git_details plugin; times that are not available are {@code Long.MIN_VALUE},\n")
+        .append(" * and {@code DIRTY} is only meaningful if {@code DIRTY_KNOWN} is true.\n")
+        .append(" */\n")
+        .append("public final class ")
+        .append(simpleName)
+        .append(" {\n");
+    appendConstant(builder, "String", "GIT_SHA", quote(snapshot.sha()));
+    appendConstant(
+        builder,
+        "String",
+        "BRANCH_NAME",
+        snapshot.branchName() == null ? "null" : quote(snapshot.branchName()));
+    appendConstant(builder, "long", "COMMIT_TIME_MILLIS", timeMillis(snapshot.commitTime()));
+    appendConstant(builder, "long", "BUILD_TIME_MILLIS", timeMillis(buildDate));
+    // false when the working tree wasn't checked, so DIRTY_KNOWN tells the two apart
+    appendConstant(
+        builder, "boolean", "DIRTY", Boolean.toString(Boolean.TRUE.equals(snapshot.dirty())));
+    appendConstant(
+        builder, "boolean", "DIRTY_KNOWN", Boolean.toString(snapshot.dirty() != null));
+    GitSnapshot.Describe describe = snapshot.describe();
+    String tag = describe == null ? null : describe.tag();
+    appendConstant(builder, "String", "NEAREST_TAG", tag == null ? "null" : quote(tag));
+    appendConstant(
+        builder,
+        "long",
+        "COMMITS_SINCE_TAG",
+        tag == null ? "-1L" : describe.distance() + "L");
+    appendConstant(
+        builder, "String", "DESCRIBE", describe == null ? "null" : quote(describe.version()));
+    appendConstant(
+        builder,
+        "String",
+        "LAST_CHANGED_SHA",
+        snapshot.lastChangedSha() == null ? "null" : quote(snapshot.lastChangedSha()));
+    appendConstant(
+        builder,
+        "String",
+        "DIRTY_FINGERPRINT",
+        snapshot.dirtyFingerprint() == null ? "null" : quote(snapshot.dirtyFingerprint()));
+    builder.append("\n  private ").append(simpleName).append("() {}\n}\n");
+    return builder.toString();
+  }
+
+  private static void appendConstant(
+      StringBuilder builder, String type, String name, String value) {
+    builder
+        .append("  public static final ")
+        .append(type)
+        .append(' ')
+        .append(name)
+        .append(" = ")
+        .append(value)
+        .append(";\n");
+  }
+
+  private static String timeMillis(OffsetDateTime time) {
+    return time == null ? "Long.MIN_VALUE" : time.toInstant().toEpochMilli() + "L";
+  }
+
+  private static String quote(String value) {
+    StringBuilder builder = new StringBuilder("\"");
+    for (char c : value.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        builder.append('\\').append(c);
+      } else if (c < 0x20) {
+        // octal, since unicode escapes of line terminators end the string literal
+        builder.append(String.format("\\%03o", (int) c));
+      } else if (c > 0x7e) {
+        builder.append(String.format("\\u%04x", (int) c));
+      } else {
+        builder.append(c);
+      }
+    }
+    return builder.append('"').toString();
+  }
+}
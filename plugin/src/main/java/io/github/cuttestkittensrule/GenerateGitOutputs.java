@@ -0,0 +1,74 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import io.github.cuttestkittensrule.GitDetailsPlugin.OutputFormat;
+import java.io.File;
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.OutputFiles;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Generates the files configured in {@code outputs}, in any mix of formats and for any source
+ * sets. Every file is rendered from the same snapshot of the repository, in one worker.
+ */
+@CacheableTask
+abstract class GenerateGitOutputs extends GitDetailsTask {
+  public GenerateGitOutputs() {}
+
+  /** The format of each generated file, by the name of its output. */
+  @Input
+  abstract MapProperty<String, OutputFormat> getFormats();
+
+  /** The generated files, by the name of their output. Each file is a separate task output. */
+  @OutputFiles
+  abstract MapProperty<String, RegularFile> getFiles();
+
+  @TaskAction
+  void createGitOutputs() {
+    Map<String, OutputFormat> formats = getFormats().get();
+    Map<File, OutputFormat> files = new LinkedHashMap<>();
+    getFiles().get().forEach((name, file) -> files.put(file.getAsFile(), formats.get(name)));
+    generate(new FormattedOutputs(files));
+  }
+
+  private record FormattedOutputs(Map<File, OutputFormat> files)
+      implements GenerateGitDetails.Output {
+    @Override
+    public void write(GitSnapshot snapshot, OffsetDateTime buildDate) {
+      for (Map.Entry<File, OutputFormat> file : files.entrySet()) {
+        String contents =
+            switch (file.getValue()) {
+              case PROPERTIES -> PropertiesRenderer.render(snapshot, false, buildDate);
+              case GVERSION -> PropertiesRenderer.render(snapshot, true, buildDate);
+              case JSON -> JsonRenderer.render(snapshot, buildDate);
+            };
+        try {
+          GeneratedFiles.writeIfChanged(file.getKey().toPath(), contents);
+        } catch (IOException e) {
+          throw new RuntimeException("Failed to write " + file.getKey() + "!", e);
+        }
+      }
+    }
+  }
+}
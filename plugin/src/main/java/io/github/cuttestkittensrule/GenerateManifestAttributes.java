@@ -0,0 +1,53 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Generates the git details as jar manifest attributes, which are merged into the manifest of the
+ * {@code jar} task. Reading them at runtime doesn't need a separate resource.
+ */
+@CacheableTask
+abstract class GenerateManifestAttributes extends GitDetailsTask {
+  public GenerateManifestAttributes() {}
+
+  @OutputFile
+  abstract RegularFileProperty getManifestFile();
+
+  @TaskAction
+  void createGitManifest() {
+    generate(new ManifestOutput(getManifestFile().get().getAsFile()));
+  }
+
+  private record ManifestOutput(File manifestFile) implements GenerateGitDetails.Output {
+    @Override
+    public void write(GitSnapshot snapshot, OffsetDateTime buildDate) {
+      try {
+        GeneratedFiles.writeIfChanged(
+            manifestFile.toPath(), ManifestRenderer.render(snapshot, buildDate));
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to write manifest attributes!", e);
+      }
+    }
+  }
+}
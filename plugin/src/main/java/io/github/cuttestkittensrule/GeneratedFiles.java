@@ -0,0 +1,61 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/** Writes generated files without touching them if their contents did not change. */
+final class GeneratedFiles {
+  private GeneratedFiles() {}
+
+  /**
+   * Write a file, unless it already has the same contents. Leaving an unchanged file alone keeps
+   * its modification time, so file watchers and tasks that use it aren't triggered. The file is
+   * replaced atomically, so readers never see a partially written file.
+   *
+   * @param file The file to write
+   * @param contents The contents of the file
+   * @return {@code true} if the file was written, or {@code false} if it was unchanged
+   * @throws IOException if the file could not be written
+   */
+  static boolean writeIfChanged(Path file, String contents) throws IOException {
+    byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+    try {
+      if (Arrays.equals(Files.readAllBytes(file), bytes)) {
+        return false;
+      }
+    } catch (NoSuchFileException e) {
+      // it is written below
+    }
+    Path directory = file.toAbsolutePath().getParent();
+    Files.createDirectories(directory);
+    Path tempFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    try {
+      Files.write(tempFile, bytes);
+      Files.move(
+          tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+    return true;
+  }
+}
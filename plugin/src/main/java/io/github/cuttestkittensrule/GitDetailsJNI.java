@@ -68,22 +68,99 @@ class GitDetailsJNI {
 
   private static final String BINARY_NAME = "git_details";
 
-  static {
-    NativeLoader loader = new NativeLoader.Builder().context(new CorrectContext()).build();
+  // option flags; must match `Options` in native/src/lib.rs (bits 1 to 3 are reserved)
+  static final int DIRTY_SUBMODULES = 1 << 4;
+  static final int DESCRIBE = 1 << 6;
+  static final int DIRTY_FINGERPRINT = 1 << 7;
+  static final int SKIP_COMMIT_TIME = 1 << 8;
+  static final int SKIP_STATUS = 1 << 9;
+  static final int SKIP_BRANCH = 1 << 10;
+  static final int DIRTY_UNTRACKED = 1 << 11;
+  static final int DIRTY_TOP_LEVEL_UNTRACKED = 1 << 12;
+  static final int DIRTY_SUBMODULES_UNTRACKED = 1 << 13;
+
+  private static final Throwable LOAD_FAILURE = load();
+
+  /**
+   * If the native library was loaded. If it wasn't, calling any of the native methods throws an
+   * {@link UnsatisfiedLinkError}.
+   *
+   * @return if the native library was loaded
+   */
+  static boolean isAvailable() {
+    return LOAD_FAILURE == null;
+  }
+
+  /**
+   * Get why the native library couldn't be loaded.
+   *
+   * @return the error that stopped the library from loading, or {@code null} if it was loaded
+   */
+  static Throwable loadFailure() {
+    return LOAD_FAILURE;
+  }
+
+  private static Throwable load() {
+    try {
+      loadLibrary();
+      return null;
+    } catch (RuntimeException | LinkageError e) {
+      // there is no prebuilt binary for this platform, or it can't be linked
+      return e;
+    }
+  }
+
+  private static void loadLibrary() {
+    CorrectContext context = new CorrectContext();
+    // loading the copy in the Gradle user home skips extracting the library in every new daemon
+    String resourcePath =
+        String.format(
+            "/META-INF/natives/%s/%s/%s",
+            context.getOsName(),
+            context.getArchIdentifier(),
+            System.mapLibraryName(BINARY_NAME));
+    if (!NativeLibraryCache.tryLoad(resourcePath)) {
+      loadWithNativeLoader(context);
+    }
+  }
+
+  private static void loadWithNativeLoader(Context context) {
+    NativeLoader loader = new NativeLoader.Builder().context(context).build();
     try {
       loader.loadLibrary(BINARY_NAME, false);
     } catch (Exception e) {
-      e.printStackTrace(System.err);
       throw new RuntimeException("Failed to load library", e);
     }
   }
 
   /**
-   * Generate a Java properties file with git information.
+   * Take a snapshot of the state of a git repository.
+   *
+   * @param repoPath The path to the git repository
+   * @param scope The directory to check for uncommitted changes, relative to the repository and
+   *     separated with {@code /}, or {@code null} to check the whole repository
+   * @param options The option flags
+   * @param threads The number of threads that compare the index against the working tree; 0 or 1
+   *     compares them on the calling thread
+   * @param cacheDirectory The directory that the hashes of changed files (if {@link
+   *     #DIRTY_FINGERPRINT} is set) and the nearest tags of recent commits (if {@link #DESCRIBE} is
+   *     set) are kept in between scans, or {@code null} to not keep them. It should be outside of
+   *     the repository.
+   * @return the snapshot
+   * @throws RuntimeException if the repository could not be scanned, with a message describing
+   *     why
+   */
+  static native GitSnapshot snapshot(
+      String repoPath, String scope, int options, int threads, String cacheDirectory);
+
+  /**
+   * Check which paths of a repository are ignored.
    *
    * @param repoPath The path to the git repository
-   * @param propertyPath The path to the Java properties file
-   * @return an error code
+   * @param paths The paths to check, relative to the repository and separated with {@code /}.
+   *     Directories end with a {@code /}.
+   * @return if each of the paths is ignored
+   * @throws RuntimeException if the repository could not be opened
    */
-  static native int generateGitProperties(String repoPath, String propertyPath, int options);
+  static native boolean[] ignored(String repoPath, String[] paths);
 }
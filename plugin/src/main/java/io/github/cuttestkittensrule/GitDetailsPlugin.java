@@ -15,17 +15,31 @@ limitations under the License.
 */
 package io.github.cuttestkittensrule;
 
-import static io.github.cuttestkittensrule.GitDetailsJNI.generateGitProperties;
-
-import org.gradle.api.DefaultTask;
+import java.io.File;
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.gradle.api.Named;
+import org.gradle.api.NamedDomainObjectContainer;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.plugins.JavaPlugin;
 import org.gradle.api.plugins.JavaPluginExtension;
 import org.gradle.api.provider.Property;
+import org.gradle.api.provider.SetProperty;
+import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.SourceSet;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.bundling.Jar;
 
 // TODO: Force load of java plugin before this plugin, or fail neatly if java plugin is not loaded
 // (if possible)
@@ -33,12 +47,233 @@ public class GitDetailsPlugin implements Plugin<Project> {
   private static final String EXTENSION_NAME = "git_details";
   private static final String GEN_DIR = "generated/resources/" + EXTENSION_NAME;
   private static final String DEFAULT_PROPERTIES_PATH = "git-info.properties";
+  private static final String DEFAULT_JSON_PATH = "git-info.json";
+  private static final String GEN_OUTPUTS_DIR =
+      "generated/resources/" + EXTENSION_NAME + "_outputs";
+  private static final String GEN_SOURCES_DIR =
+      "generated/sources/" + EXTENSION_NAME + "/java/main";
+  private static final String DEFAULT_JAVA_CLASS_NAME = "git_details.GitInfo";
+  private static final String GEN_MANIFEST_FILE =
+      "generated/manifests/" + EXTENSION_NAME + "/MANIFEST.MF";
+  private static final String REPORTS_DIR = "reports/" + EXTENSION_NAME;
   static final String GEN_PROPERTY_TASK_NAME = "createGitProperties";
+  static final String GEN_CLASS_TASK_NAME = "createGitInfoClass";
+  static final String GEN_MANIFEST_TASK_NAME = "createGitManifest";
+  static final String GEN_OUTPUTS_TASK_NAME = "createGitOutputs";
+
+  private static final String SOURCE_DATE_EPOCH = "SOURCE_DATE_EPOCH";
+
+  /** Where the {@code build_date} property comes from. */
+  public enum BuildTimestamp {
+    /** The time that the properties file was generated. */
+    WALL_CLOCK,
+    /** The time that the checked out commit was made. */
+    COMMIT_TIME,
+    /**
+     * The time in the {@code SOURCE_DATE_EPOCH} environment variable, or the commit time if it is
+     * not set.
+     */
+    SOURCE_DATE_EPOCH,
+    /** Don't generate a build date. */
+    OMITTED
+  }
+
+  /**
+   * The details that can be left out when they are not needed. The SHA is always generated, and
+   * the details with their own settings (such as {@code describe}) are generated when enabled.
+   */
+  public enum Field {
+    /** {@code branch_name}, the name of the checked out branch. */
+    BRANCH_NAME,
+    /** {@code commit_date}, the time that the checked out commit was made. */
+    COMMIT_DATE,
+    /**
+     * {@code has_uncommited_changes}, if there are uncommitted changes. This is by far the most
+     * expensive detail, since the whole working tree is compared against the index.
+     */
+    DIRTY
+  }
+
+  /**
+   * Which paths of the working tree are checked for uncommitted changes. Each level is cheaper
+   * than the next, so large working trees can use the cheapest level that still catches the
+   * changes that matter to them. Changes staged in the index are always checked.
+   */
+  public enum DirtyCheck {
+    /**
+     * Only tracked files, by comparing their size and modification time against the index. This is
+     * the default; untracked files are not changes.
+     */
+    TRACKED,
+    /**
+     * Tracked files, and untracked paths next to them. Untracked directories are not searched; one
+     * that is not ignored or empty counts as a change, even if it only has ignored files.
+     */
+    TOP_LEVEL_UNTRACKED,
+    /** Tracked files, and every untracked file that is not ignored, like {@code git status}. */
+    FULL
+  }
+
+  /**
+   * Which changes to submodules count as uncommitted changes. This overrides the {@code
+   * submodule.<name>.ignore} setting of the repository.
+   */
+  public enum SubmoduleMode {
+    /** Changes to submodules are ignored. */
+    IGNORE,
+    /**
+     * A submodule has changes if a different commit is checked out in it, or its tracked files
+     * changed.
+     */
+    DIRTY,
+    /** A submodule also has changes if it has untracked files. */
+    ALL
+  }
+
+  /** How the repository is scanned, and the generated files are written. */
+  public enum WorkerIsolation {
+    /** In a worker thread of the daemon, sharing one scan of each repository between tasks. */
+    NONE,
+    /**
+     * In a worker process, so the native library is never loaded by the daemon, and a crash in it
+     * only fails the task. This is meant for diagnosing such crashes: the daemon then can't tell if
+     * the working tree changed, so tasks that check it run every build (the generated files are
+     * only rewritten if they changed).
+     */
+    PROCESS
+  }
+
+  /** Where the git details are written. */
+  public enum OutputMode {
+    /** A properties file resource, at {@code resourceFilePath}. */
+    PROPERTIES_FILE,
+    /** Attributes of the manifest of the jar built by the {@code jar} task. */
+    MANIFEST,
+    /** Both a properties file resource and attributes of the manifest. */
+    PROPERTIES_FILE_AND_MANIFEST;
+
+    boolean propertiesFile() {
+      return this != MANIFEST;
+    }
+
+    boolean manifest() {
+      return this != PROPERTIES_FILE;
+    }
+  }
+
+  /** The format of a file in {@code outputs}. */
+  public enum OutputFormat {
+    /** A properties file, like the one generated at {@code resourceFilePath}. */
+    PROPERTIES,
+    /** A properties file with gversion property names. */
+    GVERSION,
+    /** A JSON object, with the same fields as the properties file. */
+    JSON
+  }
+
+  /** A file with the git details, added to the resources of a source set. */
+  public interface OutputSpec extends Named {
+    /** The format of the file. Defaults to {@code PROPERTIES}. */
+    Property<OutputFormat> getFormat();
+
+    /**
+     * The path of the resource file. Defaults to {@code git-info.json} for JSON files, and {@code
+     * git-info.properties} otherwise.
+     */
+    Property<String> getPath();
+
+    /** The name of the source set that the file is a resource of. Defaults to {@code main}. */
+    Property<String> getSourceSet();
+  }
 
   public interface GitDetailsExtension {
     Property<String> getResourceFilePath();
 
+    /**
+     * The details to generate besides the SHA. Only the work needed for these details is done; if
+     * only the branch is needed (and nothing else, such as {@code describe}, is enabled), the
+     * repository is read without loading the native library.
+     */
+    SetProperty<Field> getFields();
+
     Property<Boolean> getGversionBackwardCompatibility();
+
+    Property<BuildTimestamp> getBuildTimestamp();
+
+    /**
+     * Where the git details are written; a properties file resource, attributes of the jar
+     * manifest, or both.
+     */
+    Property<OutputMode> getOutputMode();
+
+    /**
+     * More files with the git details, each with its own format, path and source set. They are all
+     * generated by one task from the same scan of the repository.
+     */
+    NamedDomainObjectContainer<OutputSpec> getOutputs();
+
+    /**
+     * If a Java class with the git details as constants should be generated and compiled with the
+     * main source set.
+     */
+    Property<Boolean> getGenerateJavaClass();
+
+    /** The fully qualified name of the generated Java class. */
+    Property<String> getJavaClassName();
+
+    /**
+     * If the nearest tag of the checked out commit, and the number of commits since it, should be
+     * generated (like {@code git describe --tags}). As with git, the nearest tag is the one with
+     * the fewest commits since it, out of the first 10 tagged commits found walking the history
+     * from newest to oldest.
+     */
+    Property<Boolean> getDescribe();
+
+    /**
+     * If only the project directory should be checked for uncommitted changes, rather than the
+     * whole repository. The last commit that changed the project directory is also generated.
+     */
+    Property<Boolean> getScopeToProject();
+
+    /**
+     * The number of threads that compare tracked files against the index when checking for
+     * uncommitted changes. Only large working trees are checked in parallel; the result is the
+     * same no matter how many threads are used.
+     */
+    Property<Integer> getScanThreads();
+
+    /** Which paths of the working tree are checked for uncommitted changes. */
+    Property<DirtyCheck> getDirtyCheck();
+
+    /** Which changes to submodules count as uncommitted changes. */
+    Property<SubmoduleMode> getSubmodules();
+
+    /**
+     * If a hash of the uncommitted changes (staged, unstaged, and untracked if {@link
+     * #getDirtyCheck()} counts them) should be generated, so that builds of the same uncommitted
+     * changes produce the same files, and changing a file of a dirty working tree changes them. The
+     * hashes of changed files are kept in the build directory between builds.
+     */
+    Property<Boolean> getDirtyFingerprint();
+
+    /**
+     * If the snapshot of the repository can be kept in memory, and reused by later builds in the
+     * same daemon until the repository changes. Changes are found by watching the repository.
+     * Without it, tasks that check the working tree run every build.
+     */
+    Property<Boolean> getDaemonCache();
+
+    /**
+     * How the repository is scanned and the files are written; in a worker thread of the daemon,
+     * or in a separate worker process when diagnosing crashes of the native library.
+     */
+    Property<WorkerIsolation> getWorkerIsolation();
+
+    /**
+     * If a JSON report of how long each task took should be written to {@code
+     * build/reports/git_details}. The timings are always logged at info level.
+     */
+    Property<Boolean> getTimingReport();
   }
 
   @Override
@@ -46,26 +281,287 @@ public class GitDetailsPlugin implements Plugin<Project> {
     // allow configuration w/defaults
     var extension = project.getExtensions().create(EXTENSION_NAME, GitDetailsExtension.class);
     extension.getResourceFilePath().convention(DEFAULT_PROPERTIES_PATH);
+    extension.getFields().convention(EnumSet.allOf(Field.class));
     extension.getGversionBackwardCompatibility().convention(false);
+    extension.getBuildTimestamp().convention(BuildTimestamp.WALL_CLOCK);
+    extension.getOutputMode().convention(OutputMode.PROPERTIES_FILE);
+    extension.getGenerateJavaClass().convention(false);
+    extension.getJavaClassName().convention(DEFAULT_JAVA_CLASS_NAME);
+    extension.getTimingReport().convention(false);
+    extension.getDescribe().convention(false);
+    extension.getScopeToProject().convention(false);
+    extension.getScanThreads().convention(1);
+    extension.getDirtyCheck().convention(DirtyCheck.TRACKED);
+    extension.getSubmodules().convention(SubmoduleMode.IGNORE);
+    extension.getDaemonCache().convention(true);
+    extension.getDirtyFingerprint().convention(false);
+    extension.getWorkerIsolation().convention(WorkerIsolation.NONE);
+    extension
+        .getOutputs()
+        .configureEach(
+            output -> {
+              output.getFormat().convention(OutputFormat.PROPERTIES);
+              output
+                  .getPath()
+                  .convention(
+                      output
+                          .getFormat()
+                          .map(
+                              format ->
+                                  format == OutputFormat.JSON
+                                      ? DEFAULT_JSON_PATH
+                                      : DEFAULT_PROPERTIES_PATH));
+              output.getSourceSet().convention(SourceSet.MAIN_SOURCE_SET_NAME);
+            });
+
+    // the repository is only scanned once per build, no matter how many projects apply the plugin
+    var snapshotService =
+        project
+            .getGradle()
+            .getSharedServices()
+            .registerIfAbsent(GitSnapshotService.NAME, GitSnapshotService.class, spec -> {});
+    project
+        .getTasks()
+        .withType(GitDetailsTask.class)
+        .configureEach(
+            task -> {
+              task.getSnapshotService().set(snapshotService);
+              task.usesService(snapshotService);
+              task.getWorkerIsolation().set(extension.getWorkerIsolation());
+              // the working tree is only checked by the worker, so it is not modeled as an input
+              task.getOutputs().upToDateWhen(unused -> task.workingTreeUnchanged());
+              task.getOutputs()
+                  .doNotCacheIf(
+                      "the working tree is not an input",
+                      unused -> task.checksWorkingTree());
+              task.getBuildTimestamp().set(extension.getBuildTimestamp());
+              task.getSourceDateEpoch()
+                  .set(
+                      extension
+                          .getBuildTimestamp()
+                          .flatMap(
+                              mode ->
+                                  mode == BuildTimestamp.SOURCE_DATE_EPOCH
+                                      ? project
+                                          .getProviders()
+                                          .environmentVariable(SOURCE_DATE_EPOCH)
+                                          .map(Long::parseLong)
+                                      : project.getProviders().provider(() -> null)));
+              // a build date from the wall clock makes the output unique to this build
+              task.getOutputs()
+                  .doNotCacheIf(
+                      "build_date is taken from the wall clock",
+                      unused -> task.getBuildTimestamp().get() == BuildTimestamp.WALL_CLOCK);
+
+              // model the state of the repository as inputs, so tasks only run when it changes
+              File repoRoot = project.getRootDir();
+              task.getRepositoryDirectory().set(repoRoot);
+              task.getHead()
+                  .set(
+                      project
+                          .getProviders()
+                          .of(
+                              GitHeadValueSource.class,
+                              spec ->
+                                  spec.getParameters().getRepositoryDirectory().set(repoRoot)));
+              task.getFields().set(extension.getFields());
+              // the index only matters if the working tree is checked for uncommitted changes
+              task.getIndex()
+                  .from(
+                      extension
+                          .getFields()
+                          .zip(
+                              extension.getDirtyFingerprint(),
+                              (fields, fingerprint) ->
+                                  fields.contains(Field.DIRTY) || fingerprint
+                                      ? List.of(GitDirectory.of(repoRoot).indexFile())
+                                      : List.of()));
+              String projectPath =
+                  repoRoot
+                      .toPath()
+                      .relativize(project.getProjectDir().toPath())
+                      .toString()
+                      .replace(File.separatorChar, '/');
+              task.getScope()
+                  .set(
+                      extension
+                          .getScopeToProject()
+                          .flatMap(
+                              enabled ->
+                                  enabled
+                                      ? project.getProviders().provider(() -> projectPath)
+                                      : project.getProviders().provider(() -> null)));
+              task.getScanThreads().set(extension.getScanThreads());
+              task.getDirtyCheck().set(extension.getDirtyCheck());
+              task.getSubmodules().set(extension.getSubmodules());
+              task.getDaemonCache().set(extension.getDaemonCache());
+              task.getDescribe().set(extension.getDescribe());
+              task.getFingerprintChanges().set(extension.getDirtyFingerprint());
+              task.getCacheDirectory()
+                  .set(project.getLayout().getBuildDirectory().dir("tmp/" + task.getName()));
+              task.getTagRefs()
+                  .from(
+                      extension
+                          .getDescribe()
+                          .map(
+                              enabled ->
+                                  enabled ? GitDirectory.of(repoRoot).tagFiles() : List.of()));
+
+              String reportPath = REPORTS_DIR + "/" + task.getName() + "-timings.json";
+              task.getTimingReport()
+                  .set(
+                      extension
+                          .getTimingReport()
+                          .flatMap(
+                              enabled ->
+                                  enabled
+                                      ? project.getLayout().getBuildDirectory().file(reportPath)
+                                      : project.getProviders().provider(() -> null)));
+            });
 
     // create task to generate properties file
+    var generatedResources = project.getLayout().getBuildDirectory().dir(GEN_DIR);
     var taskProvider =
         project.getTasks().register(GEN_PROPERTY_TASK_NAME, GeneratePropertyFile.class);
     taskProvider.configure(
         task -> {
           task.getResourceFilePath().set(extension.getResourceFilePath());
           task.getGversionBackwardCompatibility().set(extension.getGversionBackwardCompatibility());
+          task.getPropertyFile()
+              .set(generatedResources.zip(extension.getResourceFilePath(), Directory::file));
         });
-    // which should be depended on by the java compilation task
-    project.getTasks().getByName(JavaPlugin.PROCESS_RESOURCES_TASK_NAME).dependsOn(taskProvider);
 
-    // add generated source set to the main source set.
+    // add generated resources to the main source set, which carries the dependency on the task
     var sourceSets = project.getExtensions().getByType(JavaPluginExtension.class).getSourceSets();
-    var generatedSourceSets = project.getLayout().getBuildDirectory().dir(GEN_DIR);
-    sourceSets.getByName(SourceSet.MAIN_SOURCE_SET_NAME).getResources().srcDir(generatedSourceSets);
+    var mainSourceSet = sourceSets.getByName(SourceSet.MAIN_SOURCE_SET_NAME);
+    mainSourceSet
+        .getResources()
+        .srcDir(
+            extension
+                .getOutputMode()
+                .flatMap(
+                    mode ->
+                        mode.propertiesFile()
+                            ? taskProvider.map(task -> generatedResources.get())
+                            : project.getProviders().provider(List::of)));
+
+    // create task to generate the manifest attributes, and merge them into the jar's manifest
+    var manifestTaskProvider =
+        project.getTasks().register(GEN_MANIFEST_TASK_NAME, GenerateManifestAttributes.class);
+    manifestTaskProvider.configure(
+        task ->
+            task.getManifestFile()
+                .set(project.getLayout().getBuildDirectory().file(GEN_MANIFEST_FILE)));
+    var manifestFile =
+        extension
+            .getOutputMode()
+            .flatMap(
+                mode ->
+                    mode.manifest()
+                        ? manifestTaskProvider.flatMap(GenerateManifestAttributes::getManifestFile)
+                        : project.getProviders().provider(() -> null));
+    project
+        .getTasks()
+        .named(JavaPlugin.JAR_TASK_NAME, Jar.class)
+        .configure(
+            jar -> {
+              // the generated file is an input, so the jar depends on the task and is rebuilt
+              // when the attributes change
+              jar.getInputs()
+                  .files(manifestFile.map(List::of).orElse(List.of()))
+                  .withPropertyName("gitDetailsManifest")
+                  .withPathSensitivity(PathSensitivity.NONE);
+              // the attributes are only read when the manifest is written
+              var attributes =
+                  manifestFile.map(file -> ManifestRenderer.read(file.getAsFile().toPath()));
+              for (String name : ManifestRenderer.NAMES) {
+                jar.getManifest()
+                    .attributes(Map.of(name, attributes.map(values -> values.get(name))));
+              }
+            });
+
+    // create task to generate the files in outputs, in a directory for each source set
+    var outputs = extension.getOutputs();
+    var outputsDirectory = project.getLayout().getBuildDirectory().dir(GEN_OUTPUTS_DIR);
+    var outputsTaskProvider =
+        project.getTasks().register(GEN_OUTPUTS_TASK_NAME, GenerateGitOutputs.class);
+    outputsTaskProvider.configure(
+        task -> {
+          task.getFormats()
+              .set(
+                  project
+                      .getProviders()
+                      .provider(
+                          () -> {
+                            Map<String, OutputFormat> formats = new TreeMap<>();
+                            for (OutputSpec output : outputs) {
+                              formats.put(output.getName(), output.getFormat().get());
+                            }
+                            return formats;
+                          }));
+          task.getFiles()
+              .set(
+                  project
+                      .getProviders()
+                      .provider(
+                          () -> {
+                            Map<String, RegularFile> files = new TreeMap<>();
+                            for (OutputSpec output : outputs) {
+                              String path =
+                                  output.getSourceSet().get() + "/" + output.getPath().get();
+                              files.put(output.getName(), outputsDirectory.get().file(path));
+                            }
+                            return files;
+                          }));
+        });
+    // the directory of each source set carries the dependency on the task, if it has any outputs
+    sourceSets.configureEach(
+        sourceSet ->
+            sourceSet
+                .getResources()
+                .srcDir(
+                    project
+                        .getProviders()
+                        .provider(
+                            () ->
+                                outputs.stream()
+                                    .anyMatch(
+                                        output ->
+                                            output
+                                                .getSourceSet()
+                                                .get()
+                                                .equals(sourceSet.getName())))
+                        .flatMap(
+                            used ->
+                                used
+                                    ? outputsTaskProvider.map(
+                                        task -> outputsDirectory.get().dir(sourceSet.getName()))
+                                    : project.getProviders().provider(List::of))));
+
+    // create task to generate the java class, if it is enabled
+    var classTaskProvider =
+        project.getTasks().register(GEN_CLASS_TASK_NAME, GenerateGitInfoClass.class);
+    classTaskProvider.configure(
+        task -> {
+          task.getClassName().set(extension.getJavaClassName());
+          task.getOutputDirectory()
+              .set(project.getLayout().getBuildDirectory().dir(GEN_SOURCES_DIR));
+        });
+    // the generated sources carry the dependency on the task, so it only runs when enabled
+    mainSourceSet
+        .getJava()
+        .srcDir(
+            extension
+                .getGenerateJavaClass()
+                .flatMap(
+                    enabled ->
+                        enabled
+                            ? classTaskProvider.flatMap(GenerateGitInfoClass::getOutputDirectory)
+                            : project.getProviders().provider(List::of)));
   }
 
-  abstract static class GeneratePropertyFile extends DefaultTask {
+  @CacheableTask
+  abstract static class GeneratePropertyFile extends GitDetailsTask {
     public GeneratePropertyFile() {}
 
     @Input
@@ -74,38 +570,25 @@ public class GitDetailsPlugin implements Plugin<Project> {
     @Input
     abstract Property<Boolean> getGversionBackwardCompatibility();
 
+    @OutputFile
+    abstract RegularFileProperty getPropertyFile();
+
     @TaskAction
     void createGitProperties() {
-      Project project = getProject();
-      String repoPath = project.getRootDir().getPath();
-      String resourceFilePath = getResourceFilePath().get();
-      String propertyFile =
-          project
-              .getLayout()
-              .getBuildDirectory()
-              .dir(GEN_DIR)
-              .get()
-              .file(resourceFilePath)
-              .getAsFile()
-              .getPath();
-      int options = 0;
-      if (getGversionBackwardCompatibility().get()) {
-        options |= 1;
-      }
-      int error = generateGitProperties(repoPath, propertyFile, options);
-      if (error != 0) {
-        switch (error) {
-          case 0b0001_0001:
-            throw new IllegalArgumentException("JNI code failed to get repository path");
-          case 0b0001_0010:
-            throw new RuntimeException("JNI code failed to get property file path");
-          case 0b0010_0001:
-            throw new RuntimeException("A fundamental assumption of git state was broken!");
-          case 0b0010_0010:
-            throw new RuntimeException(
-                "Failed to write properties file! See stderr for more info!");
-          default:
-            throw new AssertionError("Unknown error code was thrown!");
+      generate(
+          new PropertiesOutput(
+              getPropertyFile().get().getAsFile(), getGversionBackwardCompatibility().get()));
+    }
+
+    private record PropertiesOutput(File propertyFile, boolean gversionCompatibility)
+        implements GenerateGitDetails.Output {
+      @Override
+      public void write(GitSnapshot snapshot, OffsetDateTime buildDate) {
+        String contents = PropertiesRenderer.render(snapshot, gversionCompatibility, buildDate);
+        try {
+          GeneratedFiles.writeIfChanged(propertyFile.toPath(), contents);
+        } catch (IOException e) {
+          throw new RuntimeException("Failed to write properties file!", e);
         }
       }
     }
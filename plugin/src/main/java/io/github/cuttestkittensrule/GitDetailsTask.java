@@ -0,0 +1,271 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import io.github.cuttestkittensrule.GitDetailsPlugin.BuildTimestamp;
+import io.github.cuttestkittensrule.GitDetailsPlugin.DirtyCheck;
+import io.github.cuttestkittensrule.GitDetailsPlugin.Field;
+import io.github.cuttestkittensrule.GitDetailsPlugin.SubmoduleMode;
+import io.github.cuttestkittensrule.GitDetailsPlugin.WorkerIsolation;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Set;
+import javax.inject.Inject;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.SetProperty;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+
+/**
+ * A task that generates a file from the snapshot of the repository. The cheap to read state of the
+ * repository (HEAD, the index and the tags) is modeled as inputs, and the working tree is checked
+ * with {@link #workingTreeUnchanged()}, so the task is only run when the repository changes.
+ */
+abstract class GitDetailsTask extends DefaultTask {
+  /** The name of the file in the cache directory that the state of the working tree is kept in. */
+  static final String WORKING_TREE_STATE = "working-tree-state";
+
+  @Internal
+  abstract Property<GitSnapshotService> getSnapshotService();
+
+  @Inject
+  protected abstract WorkerExecutor getWorkerExecutor();
+
+  /**
+   * How the repository is scanned and the file is written. This doesn't change the generated
+   * file, so it is not an input.
+   */
+  @Internal
+  abstract Property<WorkerIsolation> getWorkerIsolation();
+
+  /** The root of the repository. */
+  @Internal
+  abstract DirectoryProperty getRepositoryDirectory();
+
+  @Input
+  abstract Property<BuildTimestamp> getBuildTimestamp();
+
+  /** The value of {@code SOURCE_DATE_EPOCH}, if it is used for the build date. */
+  @Input
+  @Optional
+  abstract Property<Long> getSourceDateEpoch();
+
+  /**
+   * The resolved HEAD of the repository; the checked out reference (if any) and the commit it
+   * points to.
+   */
+  @Input
+  @Optional
+  abstract Property<String> getHead();
+
+  /** The details to generate besides the SHA. */
+  @Input
+  abstract SetProperty<Field> getFields();
+
+  /** The index of the repository, which changes when changes are staged. */
+  @InputFiles
+  @PathSensitive(PathSensitivity.NONE)
+  abstract ConfigurableFileCollection getIndex();
+
+  /** If the nearest tag of the checked out commit should be found. */
+  @Input
+  abstract Property<Boolean> getDescribe();
+
+  /**
+   * The directory that is checked for uncommitted changes, relative to the repository and
+   * separated with {@code /}. If it is not present, the whole repository is checked.
+   */
+  @Input
+  @Optional
+  abstract Property<String> getScope();
+
+  /**
+   * The number of threads that compare the index against the working tree. This only changes how
+   * fast the repository is scanned, not the result, so it is not an input.
+   */
+  @Internal
+  abstract Property<Integer> getScanThreads();
+
+  /** Which paths of the working tree are checked for uncommitted changes. */
+  @Input
+  abstract Property<DirtyCheck> getDirtyCheck();
+
+  /** Which changes to submodules count as uncommitted changes. */
+  @Input
+  abstract Property<SubmoduleMode> getSubmodules();
+
+  /** If the snapshot can be reused from a previous build in the same daemon. */
+  @Internal
+  abstract Property<Boolean> getDaemonCache();
+
+  /** If the uncommitted changes should be hashed. */
+  @Input
+  abstract Property<Boolean> getFingerprintChanges();
+
+  /**
+   * The directory that the hashes of changed files and the nearest tags of recent commits are kept
+   * in between builds. This only changes how fast the repository is scanned, not the result, so it
+   * is not an input.
+   */
+  @Internal
+  abstract DirectoryProperty getCacheDirectory();
+
+  /** The tags of the repository, if the nearest tag is found. */
+  @InputFiles
+  @PathSensitive(PathSensitivity.RELATIVE)
+  abstract ConfigurableFileCollection getTagRefs();
+
+  /**
+   * Where to write a JSON report of how long the task took, if anywhere. The report describes this
+   * execution rather than the generated file, so it is not an output of the task.
+   */
+  @Internal
+  abstract RegularFileProperty getTimingReport();
+
+  /**
+   * If the generated files depend on the working tree; that is, if the dirty flag or the
+   * fingerprint of the uncommitted changes is generated.
+   *
+   * @return if the generated files depend on the working tree
+   */
+  boolean checksWorkingTree() {
+    return getFields().get().contains(Field.DIRTY) || getFingerprintChanges().get();
+  }
+
+  /**
+   * If the working tree is still in the state that the generated files were written from.
+   * Checking the working tree is the expensive part of scanning the repository, so it is not an
+   * input; the worker records the state it saw instead, and it is compared to a snapshot from the
+   * daemon cache that is known to be current (see {@link SnapshotCache#cached}). If there is no
+   * such snapshot, e.g. because the repository changed or is not watched, the task runs again.
+   *
+   * @return if the working tree didn't change since the files were generated
+   */
+  boolean workingTreeUnchanged() {
+    if (!checksWorkingTree()) {
+      return true;
+    }
+    String recorded;
+    try {
+      recorded = Files.readString(workingTreeState().toPath(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      return false;
+    }
+    if (recorded.equals(GenerateGitDetails.UNCHECKED_WORKING_TREE)) {
+      // the native library couldn't be loaded, so the files don't depend on the working tree
+      return true;
+    }
+    if (getWorkerIsolation().get() == WorkerIsolation.PROCESS || !getDaemonCache().get()) {
+      return false;
+    }
+    File repoRoot = getRepositoryDirectory().get().getAsFile().getAbsoluteFile();
+    GitSnapshot snapshot =
+        SnapshotCache.daemon()
+            .cached(
+                repoRoot.toPath(),
+                new GitSnapshotResolver.ScanKey(repoRoot, getScope().getOrNull(), options()));
+    return snapshot != null && recorded.equals(GenerateGitDetails.workingTreeState(snapshot));
+  }
+
+  /** The file that the worker records the state of the working tree in. */
+  private File workingTreeState() {
+    return getCacheDirectory().file(WORKING_TREE_STATE).get().getAsFile();
+  }
+
+  /**
+   * Scan the repository and write a generated file in a worker, with the configured isolation.
+   * The task waits for the worker to finish before it completes.
+   *
+   * @param output The file to generate
+   */
+  void generate(GenerateGitDetails.Output output) {
+    boolean processIsolation = getWorkerIsolation().get() == WorkerIsolation.PROCESS;
+    WorkQueue queue =
+        processIsolation
+            ? getWorkerExecutor().processIsolation()
+            : getWorkerExecutor().noIsolation();
+    queue.submit(
+        GenerateGitDetails.class,
+        parameters -> {
+          if (!processIsolation) {
+            parameters.getSnapshotService().set(getSnapshotService());
+          }
+          parameters.getRepositoryDirectory().set(getRepositoryDirectory());
+          parameters.getScope().set(getScope());
+          parameters.getOptions().set(options());
+          parameters.getScanThreads().set(getScanThreads());
+          parameters.getCacheDirectory().set(getCacheDirectory());
+          parameters.getDaemonCache().set(getDaemonCache());
+          parameters.getFields().set(getFields());
+          parameters.getBuildTimestamp().set(getBuildTimestamp());
+          parameters.getSourceDateEpoch().set(getSourceDateEpoch());
+          parameters.getOutput().set(output);
+          parameters.getTaskPath().set(getPath());
+          parameters.getTimingReport().set(getTimingReport());
+          if (checksWorkingTree()) {
+            parameters.getWorkingTreeState().set(workingTreeState());
+          }
+        });
+  }
+
+  private int options() {
+    Set<Field> fields = getFields().get();
+    int options = getDescribe().get() ? GitDetailsJNI.DESCRIBE : 0;
+    if (getFingerprintChanges().get()) {
+      options |= GitDetailsJNI.DIRTY_FINGERPRINT;
+    } else if (!fields.contains(Field.DIRTY)) {
+      options |= GitDetailsJNI.SKIP_STATUS;
+    }
+    if (!fields.contains(Field.COMMIT_DATE) && !buildDateNeedsCommitTime()) {
+      options |= GitDetailsJNI.SKIP_COMMIT_TIME;
+    }
+    if (!fields.contains(Field.BRANCH_NAME)) {
+      options |= GitDetailsJNI.SKIP_BRANCH;
+    }
+    options |=
+        switch (getDirtyCheck().get()) {
+          case TRACKED -> 0;
+          case TOP_LEVEL_UNTRACKED -> GitDetailsJNI.DIRTY_TOP_LEVEL_UNTRACKED;
+          case FULL -> GitDetailsJNI.DIRTY_UNTRACKED;
+        };
+    options |=
+        switch (getSubmodules().get()) {
+          case IGNORE -> 0;
+          case DIRTY -> GitDetailsJNI.DIRTY_SUBMODULES;
+          case ALL -> GitDetailsJNI.DIRTY_SUBMODULES | GitDetailsJNI.DIRTY_SUBMODULES_UNTRACKED;
+        };
+    return options;
+  }
+
+  private boolean buildDateNeedsCommitTime() {
+    BuildTimestamp buildTimestamp = getBuildTimestamp().get();
+    return buildTimestamp == BuildTimestamp.COMMIT_TIME
+        || (buildTimestamp == BuildTimestamp.SOURCE_DATE_EPOCH
+            && !getSourceDateEpoch().isPresent());
+  }
+}
@@ -0,0 +1,250 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+
+/**
+ * Reads the small pieces of git metadata that can be read without opening the repository with
+ * libgit2. This is used to model the state of the repository as task inputs, so that it is cheap
+ * to check if the generated files are up-to-date, and to read HEAD without the native library.
+ *
+ * <p>Linked worktrees and submodules have a {@code .git} file pointing to their git directory, and
+ * a worktree's git directory has a {@code commondir} file pointing to the directory with the refs
+ * it shares with the main worktree. Both are followed.
+ */
+final class GitDirectory {
+  private static final String SYMBOLIC_REF_PREFIX = "ref: ";
+  private static final String GITDIR_PREFIX = "gitdir:";
+  private static final String BRANCH_PREFIX = "refs/heads/";
+  private static final int MAX_SYMBOLIC_REF_DEPTH = 5;
+
+  /**
+   * The checked out commit, and the branch it was checked out through.
+   *
+   * @param sha The SHA of the checked out commit
+   * @param branchName The short name of the checked out branch (i.e. {@code main}), or {@code null}
+   *     if a branch is not checked out
+   */
+  record Head(String sha, String branchName) {}
+
+  private final Path gitDir;
+  private final Path commonDir;
+
+  private GitDirectory(Path gitDir, Path commonDir) {
+    this.gitDir = gitDir;
+    this.commonDir = commonDir;
+  }
+
+  /**
+   * Get the git directory of the repository with the given working tree.
+   *
+   * @param repoRoot The root of the working tree
+   * @return the git directory of the repository
+   */
+  static GitDirectory of(File repoRoot) {
+    Path dotGit = repoRoot.toPath().resolve(".git");
+    Path gitDir = dotGit;
+    try {
+      String gitFile = Files.isRegularFile(dotGit) ? readFirstLine(dotGit) : null;
+      if (gitFile != null && gitFile.startsWith(GITDIR_PREFIX)) {
+        String path = gitFile.substring(GITDIR_PREFIX.length()).trim();
+        gitDir = dotGit.resolveSibling(path).normalize();
+      }
+      String commonDir = readFirstLine(gitDir.resolve("commondir"));
+      if (commonDir != null && !commonDir.isEmpty()) {
+        return new GitDirectory(gitDir, gitDir.resolve(commonDir).normalize());
+      }
+    } catch (IOException e) {
+      // a repository that can't be read is reported when it is scanned
+    }
+    return new GitDirectory(gitDir, gitDir);
+  }
+
+  /**
+   * Get the git directory. For a linked worktree, this is the worktree's own directory, which has
+   * its HEAD and index.
+   *
+   * @return the git directory, which may not exist
+   */
+  Path gitDir() {
+    return gitDir;
+  }
+
+  /**
+   * Get the directory with the refs and configuration shared by every worktree. It is the git
+   * directory, unless this is a linked worktree.
+   *
+   * @return the common directory, which may not exist
+   */
+  Path commonDir() {
+    return commonDir;
+  }
+
+  /**
+   * If the git directory exists.
+   *
+   * @return if the git directory exists
+   */
+  boolean exists() {
+    return Files.isDirectory(gitDir);
+  }
+
+  /**
+   * Get the index file of the repository.
+   *
+   * @return the index file, which may not exist
+   */
+  File indexFile() {
+    return gitDir.resolve("index").toFile();
+  }
+
+  /**
+   * Get the files that tags are stored in; the directory of loose tags, and the packed refs.
+   *
+   * @return the files that tags are stored in, which may not exist
+   */
+  List<File> tagFiles() {
+    return List.of(
+        commonDir.resolve("refs/tags").toFile(), commonDir.resolve("packed-refs").toFile());
+  }
+
+  /**
+   * Get a stamp of the parts of the git directory that are cheap to read: the resolved HEAD, and
+   * the size and modification time of the index and the packed refs. If the stamp changed, the
+   * repository changed; the opposite is not true, since the working tree is not included.
+   *
+   * @return the stamp of the git directory
+   */
+  String stamp() {
+    return resolveHead()
+        + " "
+        + fileStamp(gitDir.resolve("index"))
+        + " "
+        + fileStamp(commonDir.resolve("packed-refs"));
+  }
+
+  private static String fileStamp(Path path) {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      return attributes.size() + "@" + attributes.lastModifiedTime();
+    } catch (IOException e) {
+      return "-";
+    }
+  }
+
+  /**
+   * Resolve the HEAD of the repository. If HEAD is a symbolic reference, the result is the name of
+   * the reference followed by the SHA it points to (i.e. {@code refs/heads/main 0123abcd...}).
+   * Otherwise, the result is the SHA that HEAD points to.
+   *
+   * @return the resolved HEAD, or {@code null} if it could not be resolved
+   */
+  String resolveHead() {
+    try {
+      String head = readFirstLine(gitDir.resolve("HEAD"));
+      if (head == null || !head.startsWith(SYMBOLIC_REF_PREFIX)) {
+        return head;
+      }
+      String refName = head.substring(SYMBOLIC_REF_PREFIX.length()).trim();
+      String sha = resolveRef(refName, 0);
+      return sha == null ? refName : refName + " " + sha;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Read the checked out commit and branch, like libgit2 would.
+   *
+   * @return the checked out commit and branch, or {@code null} if HEAD could not be read
+   */
+  Head head() {
+    try {
+      String head = readFirstLine(gitDir.resolve("HEAD"));
+      if (head == null) {
+        return null;
+      }
+      if (!head.startsWith(SYMBOLIC_REF_PREFIX)) {
+        return new Head(head, null);
+      }
+      String refName = head.substring(SYMBOLIC_REF_PREFIX.length()).trim();
+      String sha = resolveRef(refName, 0);
+      if (sha == null) {
+        return null;
+      }
+      String branchName =
+          refName.startsWith(BRANCH_PREFIX) ? refName.substring(BRANCH_PREFIX.length()) : null;
+      return new Head(sha, branchName);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private String resolveRef(String refName, int depth) throws IOException {
+    if (depth > MAX_SYMBOLIC_REF_DEPTH) {
+      return null;
+    }
+    String loose = readFirstLine(refDirectory(refName).resolve(refName));
+    if (loose != null) {
+      if (loose.startsWith(SYMBOLIC_REF_PREFIX)) {
+        return resolveRef(loose.substring(SYMBOLIC_REF_PREFIX.length()).trim(), depth + 1);
+      }
+      return loose;
+    }
+    Path packedRefs = commonDir.resolve("packed-refs");
+    if (!Files.isRegularFile(packedRefs)) {
+      return null;
+    }
+    List<String> lines = Files.readAllLines(packedRefs, StandardCharsets.UTF_8);
+    for (String line : lines) {
+      // skip comments and peeled tags
+      if (line.startsWith("#") || line.startsWith("^")) {
+        continue;
+      }
+      int space = line.indexOf(' ');
+      if (space > 0 && line.substring(space + 1).equals(refName)) {
+        return line.substring(0, space);
+      }
+    }
+    return null;
+  }
+
+  /** Get the directory a loose ref is in; most refs are shared by every worktree. */
+  private Path refDirectory(String refName) {
+    boolean perWorktree =
+        !refName.startsWith("refs/")
+            || refName.startsWith("refs/bisect/")
+            || refName.startsWith("refs/worktree/")
+            || refName.startsWith("refs/rewritten/");
+    return perWorktree ? gitDir : commonDir;
+  }
+
+  private static String readFirstLine(Path path) throws IOException {
+    if (!Files.isRegularFile(path)) {
+      return null;
+    }
+    String content = Files.readString(path, StandardCharsets.UTF_8);
+    int newline = content.indexOf('\n');
+    return (newline < 0 ? content : content.substring(0, newline)).trim();
+  }
+}
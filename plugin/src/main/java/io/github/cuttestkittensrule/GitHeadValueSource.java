@@ -0,0 +1,40 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.ValueSource;
+import org.gradle.api.provider.ValueSourceParameters;
+
+/**
+ * Provides the resolved HEAD of a repository (see {@link GitDirectory#resolveHead()}). As a value
+ * source, it is read when the value is needed rather than when the build is configured, so it
+ * works with the configuration cache.
+ */
+abstract class GitHeadValueSource implements ValueSource<String, GitHeadValueSource.Params> {
+  interface Params extends ValueSourceParameters {
+    /** The root of the repository. */
+    DirectoryProperty getRepositoryDirectory();
+  }
+
+  public GitHeadValueSource() {}
+
+  @Override
+  public String obtain() {
+    return GitDirectory.of(getParameters().getRepositoryDirectory().get().getAsFile())
+        .resolveHead();
+  }
+}
@@ -0,0 +1,136 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Set;
+
+/**
+ * The state of a git repository at the time it was scanned.
+ *
+ * @param sha The SHA of the checked out commit
+ * @param branchName The name of the checked out branch, or {@code null} if a branch is not checked
+ *     out
+ * @param commitTime The time that the checked out commit was made, or {@code null} if it is invalid
+ * @param dirty If there are uncommitted changes, or {@code null} if they were not checked for
+ * @param describe The nearest tag of the checked out commit, or {@code null} if it was not looked
+ *     for
+ * @param lastChangedSha The SHA of the last commit that changed the scanned directory, or {@code
+ *     null} if the scan was not limited to a directory
+ * @param dirtyFingerprint The hash of the uncommitted changes, or {@code null} if there are none or
+ *     they were not hashed
+ * @param stats How long the scan took, or {@code null} if it is not known
+ */
+record GitSnapshot(
+    String sha,
+    String branchName,
+    OffsetDateTime commitTime,
+    Boolean dirty,
+    Describe describe,
+    String lastChangedSha,
+    String dirtyFingerprint,
+    ScanStats stats) {
+  /**
+   * The nearest tag of a commit, like {@code git describe --tags}.
+   *
+   * @param tag The name of the nearest tag, or {@code null} if no tag is reachable
+   * @param distance The number of commits made since the tag
+   * @param abbreviatedSha The shortest unique abbreviation of the SHA of the commit
+   */
+  record Describe(String tag, long distance, String abbreviatedSha) {
+    /**
+     * Format the description like {@code git describe --tags --always}.
+     *
+     * @return the tag if the commit is tagged, {@code <tag>-<distance>-g<abbreviated sha>} if it
+     *     is not, or the abbreviated SHA if no tag is reachable
+     */
+    String version() {
+      if (tag == null) {
+        return abbreviatedSha;
+      }
+      if (distance == 0) {
+        return tag;
+      }
+      return tag + "-" + distance + "-g" + abbreviatedSha;
+    }
+  }
+
+  /**
+   * Get a copy of this snapshot with different stats.
+   *
+   * @param stats How long the scan took, or {@code null} if it is not known
+   * @return the copy of this snapshot
+   */
+  GitSnapshot withStats(ScanStats stats) {
+    return new GitSnapshot(
+        sha, branchName, commitTime, dirty, describe, lastChangedSha, dirtyFingerprint, stats);
+  }
+
+  /**
+   * Get a copy of this snapshot with only the selected details. The SHA, and the details with
+   * their own settings, are always kept.
+   *
+   * @param fields The details to keep
+   * @return the copy of this snapshot
+   */
+  GitSnapshot select(Set<GitDetailsPlugin.Field> fields) {
+    return new GitSnapshot(
+        sha,
+        fields.contains(GitDetailsPlugin.Field.BRANCH_NAME) ? branchName : null,
+        fields.contains(GitDetailsPlugin.Field.COMMIT_DATE) ? commitTime : null,
+        fields.contains(GitDetailsPlugin.Field.DIRTY) ? dirty : null,
+        describe,
+        lastChangedSha,
+        dirtyFingerprint,
+        stats);
+  }
+
+  /** Called from native code to create a snapshot. */
+  static GitSnapshot fromNative(
+      String sha,
+      String branchName,
+      boolean hasCommitTime,
+      long commitSeconds,
+      int commitOffsetMinutes,
+      boolean hasDirty,
+      boolean dirty,
+      String tag,
+      long distance,
+      String abbreviatedSha,
+      String lastChangedSha,
+      String dirtyFingerprint,
+      long[] stats) {
+    OffsetDateTime commitTime = null;
+    if (hasCommitTime) {
+      commitTime =
+          OffsetDateTime.ofInstant(
+              Instant.ofEpochSecond(commitSeconds),
+              ZoneOffset.ofTotalSeconds(commitOffsetMinutes * 60));
+    }
+    Describe describe = abbreviatedSha == null ? null : new Describe(tag, distance, abbreviatedSha);
+    return new GitSnapshot(
+        sha,
+        branchName,
+        commitTime,
+        hasDirty ? dirty : null,
+        describe,
+        lastChangedSha,
+        dirtyFingerprint,
+        ScanStats.fromNative(stats));
+  }
+}
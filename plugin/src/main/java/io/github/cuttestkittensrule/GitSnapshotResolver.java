@@ -0,0 +1,148 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+/**
+ * Picks the cheapest way to take a snapshot of a repository. The SHA and branch are read from the
+ * git directory in Java; the native library is only loaded for the fields that need libgit2 (the
+ * commit time, the status of the working tree, the nearest tag, and anything limited to a scope).
+ * If the native library can't be loaded on this platform, the fields that need it are left out.
+ */
+final class GitSnapshotResolver {
+  private static final Logger LOGGER = Logging.getLogger(GitSnapshotResolver.class);
+  private static final AtomicBoolean WARNED = new AtomicBoolean();
+
+  /**
+   * What a snapshot depends on other than the state of the repository. The number of threads and
+   * the fingerprint cache don't change the result of the scan, so they are not part of the key.
+   *
+   * @param repoRoot The absolute root of the repository
+   * @param scope The directory to check for uncommitted changes, or {@code null}
+   * @param options The option flags (see {@link GitDetailsJNI})
+   */
+  record ScanKey(File repoRoot, String scope, int options) {}
+
+  private GitSnapshotResolver() {}
+
+  /**
+   * Take a snapshot of a repository with the cheapest tier that has the requested details.
+   *
+   * @param key The repository, scope and options to scan with
+   * @param threads The number of threads that compare the index against the working tree
+   * @param cacheDirectory The directory that results are kept in between scans, or {@code null}
+   *     (see {@link GitDetailsJNI#snapshot})
+   * @param daemonCache If the snapshot can be reused from a previous scan in this JVM (see {@link
+   *     SnapshotCache})
+   * @return the snapshot of the repository
+   * @throws RuntimeException if the repository could not be scanned
+   */
+  static GitSnapshot scan(ScanKey key, int threads, File cacheDirectory, boolean daemonCache) {
+    Supplier<GitSnapshot> scan =
+        () ->
+            GitDetailsJNI.snapshot(
+                key.repoRoot().getPath(),
+                key.scope(),
+                key.options(),
+                threads,
+                cacheDirectory == null ? null : cacheDirectory.getPath());
+    if (daemonCache && needsNative(key.scope(), key.options())) {
+      Supplier<GitSnapshot> nativeScan = scan;
+      // reading HEAD in Java is cheaper than checking if the cached snapshot is current
+      // only the dirty flag and the fingerprint depend on the working tree
+      boolean workingTree =
+          (key.options() & GitDetailsJNI.SKIP_STATUS) == 0
+              || (key.options() & GitDetailsJNI.DIRTY_FINGERPRINT) != 0;
+      scan =
+          () ->
+              SnapshotCache.daemon()
+                  .snapshot(key.repoRoot().toPath(), key, workingTree, nativeScan);
+    }
+    return resolve(key.repoRoot(), key.scope(), key.options(), scan);
+  }
+
+  /**
+   * If a scan needs the native library.
+   *
+   * @param scope The directory to check for uncommitted changes, or {@code null}
+   * @param options The option flags (see {@link GitDetailsJNI})
+   * @return if the scan needs the native library
+   */
+  static boolean needsNative(String scope, int options) {
+    int headOnly = GitDetailsJNI.SKIP_COMMIT_TIME | GitDetailsJNI.SKIP_STATUS;
+    return scope != null
+        || (options & (GitDetailsJNI.DESCRIBE | GitDetailsJNI.DIRTY_FINGERPRINT)) != 0
+        || (options & headOnly) != headOnly;
+  }
+
+  /**
+   * Take a snapshot of a repository.
+   *
+   * @param repoRoot The root of the repository
+   * @param scope The directory to check for uncommitted changes, or {@code null}
+   * @param options The option flags (see {@link GitDetailsJNI})
+   * @param nativeScan Scans the repository with the native library
+   * @return the snapshot of the repository
+   * @throws RuntimeException if the repository could not be scanned
+   */
+  static GitSnapshot resolve(
+      File repoRoot, String scope, int options, Supplier<GitSnapshot> nativeScan) {
+    if (!needsNative(scope, options)) {
+      return readHead(repoRoot, options);
+    }
+    if (GitDetailsJNI.isAvailable()) {
+      return nativeScan.get();
+    }
+    if (WARNED.compareAndSet(false, true)) {
+      LOGGER.warn(
+          "The git_details native library could not be loaded, so only the SHA and branch are"
+              + " available: {}",
+          GitDetailsJNI.loadFailure().toString());
+    }
+    return readHead(repoRoot, options);
+  }
+
+  /**
+   * Take a snapshot of only the SHA and branch of a repository, without the native library.
+   *
+   * @param repoRoot The root of the repository
+   * @param options The option flags; only {@link GitDetailsJNI#SKIP_BRANCH} is used
+   * @return the snapshot of the repository
+   * @throws RuntimeException if HEAD could not be read
+   */
+  static GitSnapshot readHead(File repoRoot, int options) {
+    long start = System.nanoTime();
+    GitDirectory gitDirectory = GitDirectory.of(repoRoot);
+    if (!gitDirectory.exists()) {
+      throw new RuntimeException(
+          "A fundamental assumption of git state was broken! Failed to open the repository: "
+              + repoRoot);
+    }
+    GitDirectory.Head head = gitDirectory.head();
+    if (head == null) {
+      throw new RuntimeException(
+          "A fundamental assumption of git state was broken! HEAD does not point to a commit");
+    }
+    ScanStats stats = new ScanStats(0, System.nanoTime() - start, 0, 0, 0, 0, 0, 0);
+    String branchName = (options & GitDetailsJNI.SKIP_BRANCH) == 0 ? head.branchName() : null;
+    return new GitSnapshot(head.sha(), branchName, null, null, null, null, null, stats);
+  }
+}
@@ -0,0 +1,64 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Takes a snapshot of each git repository once per build, and shares it between all the projects
+ * that apply the plugin. Safe to use from tasks that run in parallel.
+ */
+abstract class GitSnapshotService implements BuildService<BuildServiceParameters.None> {
+  static final String NAME = "gitDetailsSnapshots";
+
+  /** Projects that scan the same repository with the same scope and options share a snapshot. */
+  private final Map<GitSnapshotResolver.ScanKey, GitSnapshot> snapshots = new ConcurrentHashMap<>();
+
+  public GitSnapshotService() {}
+
+  /**
+   * Get the snapshot of a repository, scanning it if this is the first time it was requested in
+   * this build. If another thread is scanning the repository, this waits for that scan to finish.
+   * The native library is only used if the options need it (see {@link GitSnapshotResolver}).
+   *
+   * @param repoRoot The root of the repository
+   * @param scope The directory to check for uncommitted changes, or {@code null} for the whole
+   *     repository (see {@link GitDetailsJNI#snapshot})
+   * @param options The option flags (see {@link GitDetailsJNI})
+   * @param threads The number of threads that compare the index against the working tree
+   * @param cacheDirectory The directory that results are kept in between scans, or {@code null}
+   *     (see {@link GitDetailsJNI#snapshot})
+   * @param daemonCache If the snapshot can be reused from a previous build in the same daemon (see
+   *     {@link SnapshotCache})
+   * @return the snapshot of the repository
+   * @throws RuntimeException if the repository could not be scanned
+   */
+  GitSnapshot snapshot(
+      File repoRoot,
+      String scope,
+      int options,
+      int threads,
+      File cacheDirectory,
+      boolean daemonCache) {
+    return snapshots.computeIfAbsent(
+        new GitSnapshotResolver.ScanKey(repoRoot.getAbsoluteFile(), scope, options),
+        key -> GitSnapshotResolver.scan(key, threads, cacheDirectory, daemonCache));
+  }
+}
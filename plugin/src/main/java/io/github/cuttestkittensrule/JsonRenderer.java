@@ -0,0 +1,87 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import java.time.OffsetDateTime;
+import java.util.StringJoiner;
+
+/**
+ * Renders a {@link GitSnapshot} as a JSON object, with the same fields as {@code Results::json}
+ * in the native library. Details that were not generated are {@code null}.
+ */
+final class JsonRenderer {
+  private JsonRenderer() {}
+
+  /**
+   * Render the JSON object.
+   *
+   * @param snapshot The state of the repository
+   * @param buildDate The build date, or {@code null} if it should not be written
+   * @return the JSON object
+   */
+  static String render(GitSnapshot snapshot, OffsetDateTime buildDate) {
+    StringJoiner json = new StringJoiner(",", "{", "}\n");
+    json.add(field("git_sha", quote(snapshot.sha())));
+    json.add(field("commit_date", date(snapshot.commitTime())));
+    json.add(field("build_date", date(buildDate)));
+    json.add(field("dirty", snapshot.dirty()));
+    json.add(field("branch_name", quote(snapshot.branchName())));
+    GitSnapshot.Describe describe = snapshot.describe();
+    if (describe != null) {
+      json.add(field("nearest_tag", quote(describe.tag())));
+      json.add(field("commits_since_tag", describe.tag() == null ? null : describe.distance()));
+      json.add(field("describe", quote(describe.version())));
+    }
+    if (snapshot.lastChangedSha() != null) {
+      json.add(field("last_changed_sha", quote(snapshot.lastChangedSha())));
+    }
+    if (snapshot.dirtyFingerprint() != null) {
+      json.add(field("dirty_fingerprint", quote(snapshot.dirtyFingerprint())));
+    }
+    return json.toString();
+  }
+
+  /**
+   * Quote a string as a JSON string.
+   *
+   * @param string The string to quote
+   * @return the quoted string, or {@code null} if the string is {@code null}
+   */
+  static String quote(String string) {
+    if (string == null) {
+      return null;
+    }
+    StringBuilder builder = new StringBuilder("\"");
+    for (char c : string.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        builder.append('\\').append(c);
+      } else if (c < 0x20) {
+        builder.append(String.format("\\u%04x", (int) c));
+      } else {
+        builder.append(c);
+      }
+    }
+    return builder.append('"').toString();
+  }
+
+  private static String date(OffsetDateTime date) {
+    return date == null ? null : quote(PropertiesRenderer.DATE_FORMAT.format(date));
+  }
+
+  private static String field(String name, Object value) {
+    return "\"" + name + "\":" + value;
+  }
+}
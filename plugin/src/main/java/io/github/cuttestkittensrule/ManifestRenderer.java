@@ -0,0 +1,135 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * Renders a {@link GitSnapshot} as the main attributes of a jar manifest. The attributes have the
+ * same values as the properties file, with the names in {@link #NAMES}.
+ */
+final class ManifestRenderer {
+  static final String SHA = "Git-Sha";
+  static final String COMMIT_DATE = "Git-Commit-Date";
+  static final String BUILD_DATE = "Git-Build-Date";
+  static final String DIRTY = "Git-Dirty";
+  static final String BRANCH = "Git-Branch";
+  static final String NEAREST_TAG = "Git-Nearest-Tag";
+  static final String COMMITS_SINCE_TAG = "Git-Commits-Since-Tag";
+  static final String DESCRIBE = "Git-Describe";
+  static final String LAST_CHANGED_SHA = "Git-Last-Changed-Sha";
+  static final String DIRTY_FINGERPRINT = "Git-Dirty-Fingerprint";
+
+  /** The names of every attribute that may be rendered, in the order they are rendered. */
+  static final List<String> NAMES =
+      List.of(
+          SHA,
+          COMMIT_DATE,
+          BUILD_DATE,
+          DIRTY,
+          BRANCH,
+          NEAREST_TAG,
+          COMMITS_SINCE_TAG,
+          DESCRIBE,
+          LAST_CHANGED_SHA,
+          DIRTY_FINGERPRINT);
+
+  private ManifestRenderer() {}
+
+  /**
+   * Render the manifest. Only the attributes that are available are rendered.
+   *
+   * @param snapshot The state of the repository
+   * @param buildDate The build date, or {@code null} if it should not be written
+   * @return the contents of the manifest
+   */
+  static String render(GitSnapshot snapshot, OffsetDateTime buildDate) {
+    Manifest manifest = new Manifest();
+    Attributes attributes = manifest.getMainAttributes();
+    attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    attributes.putValue(SHA, snapshot.sha());
+    if (snapshot.commitTime() != null) {
+      attributes.putValue(
+          COMMIT_DATE, PropertiesRenderer.DATE_FORMAT.format(snapshot.commitTime()));
+    }
+    if (buildDate != null) {
+      attributes.putValue(BUILD_DATE, PropertiesRenderer.DATE_FORMAT.format(buildDate));
+    }
+    if (snapshot.dirty() != null) {
+      attributes.putValue(DIRTY, Boolean.toString(snapshot.dirty()));
+    }
+    if (snapshot.branchName() != null) {
+      attributes.putValue(BRANCH, snapshot.branchName());
+    }
+    GitSnapshot.Describe describe = snapshot.describe();
+    if (describe != null) {
+      if (describe.tag() != null) {
+        attributes.putValue(NEAREST_TAG, describe.tag());
+        attributes.putValue(COMMITS_SINCE_TAG, Long.toString(describe.distance()));
+      }
+      attributes.putValue(DESCRIBE, describe.version());
+    }
+    if (snapshot.lastChangedSha() != null) {
+      attributes.putValue(LAST_CHANGED_SHA, snapshot.lastChangedSha());
+    }
+    if (snapshot.dirtyFingerprint() != null) {
+      attributes.putValue(DIRTY_FINGERPRINT, snapshot.dirtyFingerprint());
+    }
+    // the manifest format wraps long lines, so it is written by the JDK rather than by hand
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      manifest.write(out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toString(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Read the attributes from a rendered manifest.
+   *
+   * @param manifestFile The rendered manifest
+   * @return the values of the attributes in {@link #NAMES} that are in the manifest
+   * @throws UncheckedIOException if the manifest could not be read
+   */
+  static Map<String, String> read(Path manifestFile) {
+    try (InputStream in = Files.newInputStream(manifestFile)) {
+      Attributes attributes = new Manifest(in).getMainAttributes();
+      Map<String, String> values = new LinkedHashMap<>();
+      for (String name : NAMES) {
+        String value = attributes.getValue(name);
+        if (value != null) {
+          values.put(name, value);
+        }
+      }
+      return values;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to read the generated manifest!", e);
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.jar.JarEntry;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+/**
+ * Extracts the native library into the Gradle user home once, so that later daemons can load it
+ * without extracting it again. Each version of the library is extracted into a directory named
+ * after the plugin version and the checksum the jar records for it, so a library that is already
+ * cached is loaded without reading it from the jar. It is moved into place atomically, so builds
+ * that run at the same time never see a partially written library.
+ */
+final class NativeLibraryCache {
+  private static final Logger LOGGER = Logging.getLogger(NativeLibraryCache.class);
+  private static final String CACHE_DIR = "caches/git_details/natives";
+
+  private NativeLibraryCache() {}
+
+  /**
+   * Load a native library from the cache, extracting it from the classpath if it has not been
+   * extracted yet.
+   *
+   * @param resourcePath The path of the library on the classpath
+   * @return {@code true} if the library was loaded, or {@code false} if it could not be loaded
+   *     from the cache, and has to be loaded some other way
+   */
+  static boolean tryLoad(String resourcePath) {
+    URL resource = NativeLibraryCache.class.getResource(resourcePath);
+    if (resource == null) {
+      LOGGER.debug("Native library {} is not on the classpath", resourcePath);
+      return false;
+    }
+    Path library;
+    try {
+      String fileName = resourcePath.substring(resourcePath.lastIndexOf('/') + 1);
+      library = extract(resource, gradleUserHome().resolve(CACHE_DIR), fileName);
+    } catch (IOException e) {
+      LOGGER.debug("Failed to extract native library {}", resourcePath, e);
+      return false;
+    }
+    try {
+      System.load(library.toString());
+      return true;
+    } catch (UnsatisfiedLinkError e) {
+      // a library can only be loaded by one class loader, so a second class loader in the same
+      // daemon (e.g. a different build script classpath) needs its own copy
+      LOGGER.debug("Failed to load cached native library {}", library, e);
+      return false;
+    }
+  }
+
+  /**
+   * Extract a library on the classpath into the cache, unless it has already been extracted. A
+   * library in a jar is only read if it is not in the cache yet.
+   *
+   * @param resource The library on the classpath
+   * @param cacheRoot The root of the cache
+   * @param fileName The file name of the library
+   * @return the path of the extracted library
+   * @throws IOException if the library could not be extracted
+   */
+  static Path extract(URL resource, Path cacheRoot, String fileName) throws IOException {
+    String key = jarEntryKey(resource);
+    if (key == null) {
+      // not in a jar (e.g. running from the build directory), so the contents have to be hashed
+      try (InputStream is = resource.openStream()) {
+        return extract(is.readAllBytes(), cacheRoot, fileName);
+      }
+    }
+    Path library = cacheRoot.resolve(key).resolve(fileName);
+    if (Files.isRegularFile(library)) {
+      return library;
+    }
+    try (InputStream is = resource.openStream()) {
+      write(is.readAllBytes(), library);
+    }
+    return library;
+  }
+
+  /**
+   * Extract a library into the cache, unless it has already been extracted.
+   *
+   * @param contents The contents of the library
+   * @param cacheRoot The root of the cache
+   * @param fileName The file name of the library
+   * @return the path of the extracted library
+   * @throws IOException if the library could not be extracted
+   */
+  static Path extract(byte[] contents, Path cacheRoot, String fileName) throws IOException {
+    Path library = cacheRoot.resolve(hash(contents)).resolve(fileName);
+    if (!Files.isRegularFile(library)) {
+      write(contents, library);
+    }
+    return library;
+  }
+
+  /**
+   * Name the cache directory of a library in a jar after the plugin version and the CRC-32 the
+   * jar records for it, which are both known without reading the library.
+   *
+   * @param resource The library on the classpath
+   * @return the name of the cache directory, or {@code null} if the library is not in a jar
+   * @throws IOException if the jar could not be opened
+   */
+  static String jarEntryKey(URL resource) throws IOException {
+    URLConnection connection = resource.openConnection();
+    if (!(connection instanceof JarURLConnection jarConnection)) {
+      return null;
+    }
+    JarEntry entry = jarConnection.getJarEntry();
+    if (entry == null || entry.getCrc() == -1) {
+      return null;
+    }
+    String version = NativeLibraryCache.class.getPackage().getImplementationVersion();
+    return String.format(
+        "%s-%08x-%d", version == null ? "unversioned" : version, entry.getCrc(), entry.getSize());
+  }
+
+  private static void write(byte[] contents, Path library) throws IOException {
+    Path directory = library.getParent();
+    String fileName = library.getFileName().toString();
+    Files.createDirectories(directory);
+    Path tempFile = Files.createTempFile(directory, fileName, ".tmp");
+    try {
+      Files.write(tempFile, contents);
+      Files.move(tempFile, library, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      // another build extracted it first (on Windows, a library that another process loaded can't
+      // be replaced); since the directory is named after the contents, its copy is just as good
+      if (!Files.isRegularFile(library)) {
+        throw e;
+      }
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  private static String hash(byte[] contents) {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(contents));
+    } catch (NoSuchAlgorithmException e) {
+      // every Java implementation is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static Path gradleUserHome() {
+    String property = System.getProperty("gradle.user.home");
+    if (property != null) {
+      return Path.of(property);
+    }
+    String environment = System.getenv("GRADLE_USER_HOME");
+    if (environment != null) {
+      return Path.of(environment);
+    }
+    return Path.of(System.getProperty("user.home"), ".gradle");
+  }
+}
@@ -0,0 +1,87 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+
+/** Renders a {@link GitSnapshot} as the contents of a Java properties file. */
+final class PropertiesRenderer {
+  /** ISO formatted datetime, matching the format that the native library writes. */
+  static final DateTimeFormatter DATE_FORMAT =
+      new DateTimeFormatterBuilder()
+          .append(DateTimeFormatter.ISO_LOCAL_DATE_TIME)
+          .appendOffset("+HH:MM", "+00:00")
+          .toFormatter();
+
+  private PropertiesRenderer() {}
+
+  /**
+   * Render the properties file.
+   *
+   * @param snapshot The state of the repository
+   * @param gversionCompatibility If gversion property names should be used
+   * @param buildDate The build date, or {@code null} if it should not be written
+   * @return the contents of the properties file
+   */
+  static String render(
+      GitSnapshot snapshot, boolean gversionCompatibility, OffsetDateTime buildDate) {
+    StringBuilder builder = new StringBuilder();
+    appendProperty(builder, "git_sha", snapshot.sha());
+    if (snapshot.commitTime() != null) {
+      appendProperty(
+          builder,
+          gversionCompatibility ? "git_date" : "commit_date",
+          DATE_FORMAT.format(snapshot.commitTime()));
+    }
+    if (buildDate != null) {
+      appendProperty(builder, "build_date", DATE_FORMAT.format(buildDate));
+      if (gversionCompatibility) {
+        appendProperty(builder, "build_unix_time", Long.toString(buildDate.toEpochSecond()));
+      }
+    }
+    if (snapshot.dirty() != null) {
+      if (gversionCompatibility) {
+        appendProperty(builder, "dirty", snapshot.dirty() ? "1" : "0");
+      } else {
+        appendProperty(builder, "has_uncommited_changes", Boolean.toString(snapshot.dirty()));
+      }
+    }
+    if (snapshot.branchName() != null) {
+      appendProperty(builder, "branch_name", snapshot.branchName());
+    }
+    GitSnapshot.Describe describe = snapshot.describe();
+    if (describe != null) {
+      if (describe.tag() != null) {
+        appendProperty(builder, "nearest_tag", describe.tag());
+        appendProperty(builder, "commits_since_tag", Long.toString(describe.distance()));
+      }
+      appendProperty(builder, "describe", describe.version());
+    }
+    if (snapshot.lastChangedSha() != null) {
+      appendProperty(builder, "last_changed_sha", snapshot.lastChangedSha());
+    }
+    if (snapshot.dirtyFingerprint() != null) {
+      appendProperty(builder, "dirty_fingerprint", snapshot.dirtyFingerprint());
+    }
+    return builder.toString();
+  }
+
+  private static void appendProperty(StringBuilder builder, String name, String value) {
+    builder.append(name).append('=').append(value).append('\n');
+  }
+}
@@ -0,0 +1,322 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Watches the parts of a repository that a snapshot depends on: {@code HEAD}, the index, the refs,
+ * {@code info/exclude}, and the directories of the working tree that are not ignored. The git
+ * directory is found like {@link GitDirectory} does, so linked worktrees and submodules (where
+ * {@code .git} is a file) are watched too. Events are only read when the watcher is polled, so it
+ * doesn't need a thread of its own.
+ *
+ * <p>The global excludes file ({@code core.excludesFile}) is outside of the repository, so changes
+ * to it are not seen.
+ */
+final class RepositoryWatcher implements Closeable {
+  /** The most directories of the working tree that are watched, to bound the watches used. */
+  static final int MAX_WATCHED_DIRECTORIES = 16_384;
+
+  private static final Set<String> GIT_DIR_FILES = Set.of("HEAD", "index");
+  private static final Set<String> COMMON_DIR_FILES = Set.of("packed-refs", "info");
+  private static final String EXCLUDE_FILE = "exclude";
+  private static final String IGNORE_FILE = ".gitignore";
+
+  /** Checks which paths are ignored by git. */
+  interface IgnoreCheck {
+    /**
+     * Check which paths are ignored.
+     *
+     * @param paths The paths, relative to the repository and separated with {@code /}. Directories
+     *     end with a {@code /}.
+     * @return if each of the paths is ignored
+     */
+    boolean[] ignored(String[] paths);
+  }
+
+  private final Path repoRoot;
+  private final Path gitDir;
+  private final Path commonDir;
+  private final Path infoDir;
+  private final IgnoreCheck ignoreCheck;
+  private final WatchService watchService;
+  private final Map<WatchKey, Path> directories = new HashMap<>();
+  private final List<WatchKey> workingTreeKeys = new ArrayList<>();
+  private boolean watchesWorkingTree;
+  private boolean broken;
+  private long generation;
+
+  private RepositoryWatcher(Path repoRoot, IgnoreCheck ignoreCheck, WatchService watchService) {
+    GitDirectory gitDirectory = GitDirectory.of(repoRoot.toFile());
+    this.repoRoot = repoRoot;
+    this.gitDir = gitDirectory.gitDir();
+    this.commonDir = gitDirectory.commonDir();
+    this.infoDir = commonDir.resolve("info");
+    this.ignoreCheck = ignoreCheck;
+    this.watchService = watchService;
+  }
+
+  /**
+   * Start watching a repository.
+   *
+   * @param repoRoot The root of the working tree
+   * @param ignoreCheck Checks which directories of the working tree are ignored, and don't need to
+   *     be watched
+   * @return the watcher, or {@code null} if file system events are not available on this platform
+   *     (e.g. the JDK polls for changes, so events arrive too late to trust)
+   * @throws IOException if the repository could not be watched
+   */
+  static RepositoryWatcher create(Path repoRoot, IgnoreCheck ignoreCheck) throws IOException {
+    WatchService watchService = FileSystems.getDefault().newWatchService();
+    if (watchService.getClass().getName().endsWith("PollingWatchService")) {
+      watchService.close();
+      return null;
+    }
+    RepositoryWatcher watcher = new RepositoryWatcher(repoRoot, ignoreCheck, watchService);
+    try {
+      watcher.register(watcher.gitDir);
+      if (!watcher.commonDir.equals(watcher.gitDir)) {
+        watcher.register(watcher.commonDir);
+        // refs that belong to the worktree (e.g. refs/bisect) are in its own directory
+        watcher.watchTree(watcher.gitDir.resolve("refs"));
+      }
+      watcher.watchTree(watcher.commonDir.resolve("refs"));
+      watcher.watchTree(watcher.infoDir);
+      watcher.watchesWorkingTree = watcher.watchWorkingTree(List.of(repoRoot));
+    } catch (IOException | RuntimeException e) {
+      watcher.close();
+      throw e;
+    }
+    return watcher;
+  }
+
+  /**
+   * If every directory of the working tree that isn't ignored is watched. If it isn't (e.g. there
+   * are more than {@link #MAX_WATCHED_DIRECTORIES}), changes to the working tree can't be seen.
+   *
+   * @return if the working tree is watched
+   */
+  synchronized boolean watchesWorkingTree() {
+    return watchesWorkingTree;
+  }
+
+  /**
+   * Read the events since the last poll. Changes to the working tree only count if the changed
+   * path isn't ignored.
+   *
+   * @return a number that changes whenever the repository changes, or {@code -1} if the watcher
+   *     can't be used anymore, because events were lost or the ignore rules changed ({@code
+   *     info/exclude} or a {@code .gitignore} file), so the directories that are watched may be
+   *     ignored, or the other way around
+   */
+  synchronized long poll() {
+    boolean changed = false;
+    List<Path> createdGitDirectories = new ArrayList<>();
+    Set<Path> workingTreeChanges = new LinkedHashSet<>();
+    WatchKey key;
+    while (!broken && (key = watchService.poll()) != null) {
+      Path directory = directories.get(key);
+      if (directory == null) {
+        // a watch of the working tree that was cancelled
+        key.pollEvents();
+        continue;
+      }
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == OVERFLOW) {
+          broken = true;
+          break;
+        }
+        Path child = directory.resolve((Path) event.context());
+        if (!directory.startsWith(gitDir) && !directory.startsWith(commonDir)) {
+          if (child.getFileName().toString().equals(IGNORE_FILE)) {
+            broken = true;
+            break;
+          }
+          if (!child.equals(repoRoot.resolve(".git"))) {
+            workingTreeChanges.add(child);
+          }
+          continue;
+        }
+        // the git directory also has files that don't change the snapshot (e.g. lock files)
+        if (!inSnapshot(directory, child.getFileName().toString())) {
+          continue;
+        }
+        if (directory.equals(infoDir)) {
+          broken = true;
+          break;
+        }
+        changed = true;
+        if (event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+          createdGitDirectories.add(child);
+        }
+      }
+      if (!key.reset()) {
+        // the directory was deleted, which is an event in its parent
+        directories.remove(key);
+      }
+    }
+    try {
+      for (Path created : createdGitDirectories) {
+        watchTree(created);
+      }
+      List<Path> relevant = notIgnored(new ArrayList<>(workingTreeChanges));
+      changed |= !relevant.isEmpty();
+      for (Path path : relevant) {
+        if (watchesWorkingTree
+            && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)
+            && !directories.containsValue(path)) {
+          watchesWorkingTree = watchWorkingTree(List.of(path));
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      broken = true;
+    }
+    if (changed) {
+      generation++;
+    }
+    return broken ? -1 : generation;
+  }
+
+  /** If a file of the git directory (not the working tree) is part of the snapshot. */
+  private boolean inSnapshot(Path directory, String name) {
+    if (directory.equals(gitDir) && GIT_DIR_FILES.contains(name)) {
+      return true;
+    }
+    if (directory.equals(commonDir)) {
+      return COMMON_DIR_FILES.contains(name);
+    }
+    if (directory.equals(infoDir)) {
+      return name.equals(EXCLUDE_FILE);
+    }
+    // everything else that is watched is a directory of refs
+    return !directory.equals(gitDir);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    directories.clear();
+    watchService.close();
+  }
+
+  /** Watch a directory of the git directory, and every directory in it, if it exists. */
+  private void watchTree(Path root) throws IOException {
+    if (!Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS)) {
+      return;
+    }
+    List<Path> level = List.of(root);
+    while (!level.isEmpty()) {
+      List<Path> children = new ArrayList<>();
+      for (Path directory : level) {
+        register(directory);
+        children.addAll(subdirectories(directory));
+      }
+      level = children;
+    }
+  }
+
+  /**
+   * Watch directories of the working tree, and every directory in them that isn't ignored. Each
+   * level of the tree is checked against the ignore rules at once.
+   *
+   * @return {@code false} if there were too many directories to watch, in which case none of the
+   *     working tree is watched
+   */
+  private boolean watchWorkingTree(List<Path> roots) throws IOException {
+    List<Path> level = roots;
+    while (!level.isEmpty()) {
+      List<Path> children = new ArrayList<>();
+      for (Path directory : level) {
+        if (workingTreeKeys.size() >= MAX_WATCHED_DIRECTORIES) {
+          // watching part of the working tree is no use, so free the watches
+          workingTreeKeys.forEach(WatchKey::cancel);
+          directories.keySet().removeAll(workingTreeKeys);
+          workingTreeKeys.clear();
+          return false;
+        }
+        workingTreeKeys.add(register(directory));
+        for (Path child : subdirectories(directory)) {
+          if (!child.getFileName().toString().equals(".git")) {
+            children.add(child);
+          }
+        }
+      }
+      level = notIgnored(children);
+    }
+    return true;
+  }
+
+  /** Filter out the paths of the working tree that are ignored. */
+  private List<Path> notIgnored(List<Path> files) {
+    if (files.isEmpty()) {
+      return files;
+    }
+    String[] paths = new String[files.size()];
+    for (int i = 0; i < paths.length; i++) {
+      Path file = files.get(i);
+      String relative = repoRoot.relativize(file).toString();
+      paths[i] = relative.replace(file.getFileSystem().getSeparator(), "/");
+      // deleted directories are checked like files, which may count an ignored one as a change
+      if (Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+        paths[i] += "/";
+      }
+    }
+    boolean[] ignored = ignoreCheck.ignored(paths);
+    List<Path> notIgnored = new ArrayList<>();
+    for (int i = 0; i < paths.length; i++) {
+      if (!ignored[i]) {
+        notIgnored.add(files.get(i));
+      }
+    }
+    return notIgnored;
+  }
+
+  private WatchKey register(Path directory) throws IOException {
+    WatchKey key = directory.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+    directories.put(key, directory);
+    return key;
+  }
+
+  private static List<Path> subdirectories(Path directory) throws IOException {
+    List<Path> subdirectories = new ArrayList<>();
+    try (DirectoryStream<Path> stream =
+        Files.newDirectoryStream(
+            directory, path -> Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS))) {
+      stream.forEach(subdirectories::add);
+    }
+    return subdirectories;
+  }
+}
@@ -0,0 +1,51 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+/**
+ * How long each phase of scanning a repository took, and how much work the dirty check did.
+ *
+ * @param openNanos Opening the repository
+ * @param headNanos Peeling HEAD to a commit, and reading the branch name
+ * @param describeNanos Finding the nearest tag, if it was looked for
+ * @param statusNanos Checking for uncommitted changes
+ * @param conversionNanos Converting strings between Java and the native library
+ * @param entriesScanned The number of index entries compared against the working tree
+ * @param dirsVisited The number of directories with tracked files that were searched for
+ *     untracked files
+ * @param untrackedDirsVisited The number of untracked directories that were searched for files
+ *     that aren't ignored
+ */
+record ScanStats(
+    long openNanos,
+    long headNanos,
+    long describeNanos,
+    long statusNanos,
+    long conversionNanos,
+    long entriesScanned,
+    long dirsVisited,
+    long untrackedDirsVisited) {
+  /** Creates the stats from the array passed by native code. */
+  static ScanStats fromNative(long[] stats) {
+    return new ScanStats(
+        stats[0], stats[1], stats[2], stats[3], stats[4], stats[5], stats[6], stats[7]);
+  }
+
+  /** The total time spent in the native library. */
+  long totalNanos() {
+    return openNanos + headNanos + describeNanos + statusNanos + conversionNanos;
+  }
+}
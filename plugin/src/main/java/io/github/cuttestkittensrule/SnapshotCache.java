@@ -0,0 +1,191 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+/**
+ * Keeps the snapshots of repositories in memory for as long as the daemon runs, so that a build
+ * where nothing changed in the repository since the last build doesn't scan it again.
+ *
+ * <p>Each repository is watched with a {@link RepositoryWatcher}, and a snapshot is only reused if
+ * no events arrived since it was taken. Events are delivered asynchronously, so the cheap to read
+ * parts of the git directory (see {@link GitDirectory#stamp()}) also have to be unchanged. Both the
+ * snapshots and the watched repositories are evicted least recently used first, so memory use and
+ * the number of watches stay bounded in daemons that see many repositories.
+ */
+final class SnapshotCache {
+  static final int MAX_SNAPSHOTS = 256;
+  static final int MAX_REPOSITORIES = 8;
+
+  private static final Logger LOGGER = Logging.getLogger(SnapshotCache.class);
+  private static final SnapshotCache DAEMON =
+      new SnapshotCache(repoRoot -> paths -> GitDetailsJNI.ignored(repoRoot.toString(), paths));
+
+  private record Entry(Path repoRoot, long generation, String stamp, GitSnapshot snapshot) {}
+
+  private final Function<Path, RepositoryWatcher.IgnoreCheck> ignoreChecks;
+  /** The watcher of each repository, which is empty if the repository can't be watched. */
+  private final Map<Path, Optional<RepositoryWatcher>> watchers =
+      new LinkedHashMap<>(16, 0.75f, true);
+
+  private final Map<Object, Entry> snapshots = new LinkedHashMap<>(16, 0.75f, true);
+
+  SnapshotCache(Function<Path, RepositoryWatcher.IgnoreCheck> ignoreChecks) {
+    this.ignoreChecks = ignoreChecks;
+  }
+
+  /**
+   * Get the cache that lives as long as the daemon.
+   *
+   * @return the cache of the daemon
+   */
+  static SnapshotCache daemon() {
+    return DAEMON;
+  }
+
+  /**
+   * Get the snapshot of a repository from the cache, or scan it if the repository changed since
+   * the cached snapshot was taken. Reused snapshots don't have {@link GitSnapshot#stats()}.
+   *
+   * @param repoRoot The root of the repository
+   * @param key What the snapshot depends on other than the state of the repository (e.g. the
+   *     options it was scanned with)
+   * @param workingTree If the snapshot depends on the working tree (i.e. it has the dirty flag or
+   *     the fingerprint of the uncommitted changes), so it can only be reused if the working tree
+   *     is watched
+   * @param scan Scans the repository
+   * @return the snapshot of the repository
+   */
+  GitSnapshot snapshot(
+      Path repoRoot, Object key, boolean workingTree, Supplier<GitSnapshot> scan) {
+    String stamp = GitDirectory.of(repoRoot.toFile()).stamp();
+    Optional<RepositoryWatcher> watched = watcher(repoRoot);
+    long generation;
+    synchronized (this) {
+      RepositoryWatcher watcher = watched.orElse(null);
+      generation =
+          watcher == null || (workingTree && !watcher.watchesWorkingTree()) ? -1 : watcher.poll();
+      Entry entry = snapshots.get(key);
+      if (current(entry, generation, stamp)) {
+        return entry.snapshot();
+      }
+      if (watcher != null
+          && generation < 0
+          && watchers.get(repoRoot) == watched
+          && (!workingTree || watcher.watchesWorkingTree())) {
+        // the watcher can't be trusted anymore (e.g. events were lost), so start over
+        forget(repoRoot);
+      }
+    }
+    // the generation is read before scanning, so changes made during the scan invalidate it
+    GitSnapshot snapshot = scan.get();
+    if (generation >= 0) {
+      synchronized (this) {
+        snapshots.put(key, new Entry(repoRoot, generation, stamp, snapshot.withStats(null)));
+        if (snapshots.size() > MAX_SNAPSHOTS) {
+          snapshots.remove(snapshots.keySet().iterator().next());
+        }
+      }
+    }
+    return snapshot;
+  }
+
+  /**
+   * Get the snapshot of a repository from the cache without scanning it, if the working tree is
+   * watched and nothing changed since the snapshot was taken. This doesn't start watching the
+   * repository, so it never loads the native library.
+   *
+   * @param repoRoot The root of the repository
+   * @param key What the snapshot depends on other than the state of the repository
+   * @return the cached snapshot, or {@code null} if there is none or it may be out of date
+   */
+  GitSnapshot cached(Path repoRoot, Object key) {
+    String stamp = GitDirectory.of(repoRoot.toFile()).stamp();
+    synchronized (this) {
+      Optional<RepositoryWatcher> watched = watchers.get(repoRoot);
+      if (watched == null || watched.isEmpty() || !watched.get().watchesWorkingTree()) {
+        return null;
+      }
+      Entry entry = snapshots.get(key);
+      return current(entry, watched.get().poll(), stamp) ? entry.snapshot() : null;
+    }
+  }
+
+  /**
+   * Get the watcher of a repository, starting to watch it if it isn't yet. Starting checks every
+   * directory of the working tree against the ignore rules, so it is done without holding the lock;
+   * if another thread starts watching the same repository first, its watcher is used instead.
+   */
+  private Optional<RepositoryWatcher> watcher(Path repoRoot) {
+    synchronized (this) {
+      Optional<RepositoryWatcher> existing = watchers.get(repoRoot);
+      if (existing != null) {
+        return existing;
+      }
+    }
+    RepositoryWatcher watcher = null;
+    try {
+      watcher = RepositoryWatcher.create(repoRoot, ignoreChecks.apply(repoRoot));
+    } catch (IOException | RuntimeException e) {
+      LOGGER.debug("Failed to watch {} for changes; it will be scanned every build", repoRoot, e);
+    }
+    Optional<RepositoryWatcher> created = Optional.ofNullable(watcher);
+    Optional<RepositoryWatcher> published;
+    synchronized (this) {
+      published = watchers.computeIfAbsent(repoRoot, root -> created);
+      if (published == created && watchers.size() > MAX_REPOSITORIES) {
+        forget(watchers.keySet().iterator().next());
+      }
+    }
+    if (published != created) {
+      created.ifPresent(duplicate -> close(repoRoot, duplicate));
+    }
+    return published;
+  }
+
+  /** If a cached snapshot was taken at the current generation of the watcher and stamp. */
+  private static boolean current(Entry entry, long generation, String stamp) {
+    return generation >= 0
+        && entry != null
+        && entry.generation() == generation
+        && entry.stamp().equals(stamp);
+  }
+
+  private void forget(Path repoRoot) {
+    Optional<RepositoryWatcher> watcher = watchers.remove(repoRoot);
+    if (watcher != null) {
+      watcher.ifPresent(removed -> close(repoRoot, removed));
+    }
+    snapshots.values().removeIf(entry -> entry.repoRoot().equals(repoRoot));
+  }
+
+  private static void close(Path repoRoot, RepositoryWatcher watcher) {
+    try {
+      watcher.close();
+    } catch (IOException e) {
+      LOGGER.debug("Failed to stop watching {}", repoRoot, e);
+    }
+  }
+}
@@ -0,0 +1,273 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * Times {@code createGitProperties} on large repositories, cold (the first build of the repository,
+ * so nothing about it is cached by the daemon or in the build directory) and warm (the median of
+ * several runs after it), and fails if a time is over its budget: the stored baseline times the
+ * allowed regression, and at least {@value #MIN_SLACK_MILLIS} ms over the baseline. Only the tasks
+ * themselves are timed, as reported by Gradle's task events, so starting the build and configuring
+ * the projects is not included.
+ *
+ * <p>The build passes these system properties:
+ *
+ * <ul>
+ *   <li>{@code git_details.perf.baseline}: the stored baseline
+ *   <li>{@code git_details.perf.results}: where the measured times are written
+ *   <li>{@code git_details.perf.tolerance}: how many times slower than the baseline is allowed
+ *   <li>{@code git_details.perf.testKitDir}: the TestKit directory that the daemon runs in
+ *   <li>{@code git_details.perf.updateBaseline}: if the baseline should be replaced with the
+ *       measured times, instead of checking against it
+ * </ul>
+ */
+class CreateGitPropertiesPerformanceTest {
+  private static final String TASK = ":createGitProperties";
+  private static final int WARM_RUNS = 5;
+  private static final int DAEMON_IDLE_TIMEOUT_MILLIS = 60_000;
+  /** The least that a time may be over its baseline, since short times are mostly noise. */
+  private static final long MIN_SLACK_MILLIS = 250;
+  private static final Map<String, Long> MEASURED = new TreeMap<>();
+
+  /** The fixtures, each of which stresses a different part of the scan. */
+  enum Scenario {
+    /** Many tracked files with no changes, so every index entry is compared. */
+    TRACKED_FILES_CLEAN(builder -> builder.trackedFiles(20_000)),
+    /** Many tracked files with one change. */
+    TRACKED_FILES_DIRTY(builder -> builder.trackedFiles(20_000).dirty()),
+    /** A large tree of untracked files, which are found by walking the working tree. */
+    UNTRACKED_TREE(builder -> builder.untrackedFiles(20_000).dirtyCheck("FULL")),
+    /** A long history with no tags, which describe walks to the root. */
+    DEEP_HISTORY(builder -> builder.history(20_000).describe(true)),
+    /** Many projects applying the plugin to the same repository. */
+    MANY_SUBPROJECTS(
+        builder -> {
+          for (int i = 0; i < 50; i++) {
+            builder.addSubproject(String.format("project%02d", i));
+          }
+        });
+
+    private final Consumer<TestProjectBuilder> fixture;
+
+    Scenario(Consumer<TestProjectBuilder> fixture) {
+      this.fixture = fixture;
+    }
+  }
+
+  @TempDir File projectDir;
+  @TempDir File timesDir;
+
+  /**
+   * Share one TestKit directory, in the build directory, between the scenarios, so they all use the
+   * same daemon. The daemon stops itself soon after the last build, since TestKit can't stop it.
+   */
+  @BeforeAll
+  static void configureDaemon() throws IOException {
+    Path testKitDir = testKitDir();
+    Files.createDirectories(testKitDir);
+    Files.writeString(
+        testKitDir.resolve("gradle.properties"),
+        "org.gradle.daemon.idletimeout=" + DAEMON_IDLE_TIMEOUT_MILLIS + "\n");
+  }
+
+  @ParameterizedTest
+  @EnumSource(Scenario.class)
+  void createGitProperties(Scenario scenario) throws Exception {
+    // Prepare
+    TestProjectBuilder builder = new TestProjectBuilder(projectDir).buildTimestamp("COMMIT_TIME");
+    scenario.fixture.accept(builder);
+    builder.build();
+
+    Path times = timesDir.toPath().resolve("times.properties");
+    Path initScript = writeInitScript(timesDir.toPath().resolve("task-times.gradle"), times);
+
+    // Act (run on a new daemon, then repeatedly on the warm daemon)
+    GradleRunner runner = GradleRunner.create();
+    runner.withPluginClasspath();
+    runner.withProjectDir(projectDir);
+    runner.withTestKitDir(testKitDir().toFile());
+    List<String> arguments =
+        new ArrayList<>(
+            List.of(
+                TASK.substring(1),
+                "--parallel",
+                "--configuration-cache",
+                "--init-script",
+                initScript.toString()));
+    runner.withArguments(arguments);
+    long cold = timeMillis(runner, times);
+    arguments.add("--rerun-tasks");
+    runner.withArguments(arguments);
+    timeMillis(runner, times);
+    List<Long> warmRuns = new ArrayList<>();
+    for (int i = 0; i < WARM_RUNS; i++) {
+      warmRuns.add(timeMillis(runner, times));
+    }
+    long warm = warmRuns.stream().sorted().toList().get(WARM_RUNS / 2);
+
+    // Assert
+    recordTime(scenario + ".cold", cold);
+    recordTime(scenario + ".warm", warm);
+    if (updateBaseline()) {
+      return;
+    }
+    Properties baseline = readBaseline();
+    assertWithinBudget(baseline, scenario + ".cold", cold);
+    assertWithinBudget(baseline, scenario + ".warm", warm);
+  }
+
+  @AfterAll
+  static void writeResults() throws IOException {
+    write(Path.of(System.getProperty("git_details.perf.results")));
+    if (updateBaseline()) {
+      write(baselineFile());
+    }
+  }
+
+  /**
+   * Run the build, and add up how long every {@code createGitProperties} task in it took. With
+   * several projects, the tasks can overlap, so this is the time spent in them rather than how long
+   * the build waited for them.
+   */
+  private static long timeMillis(GradleRunner runner, Path times) throws IOException {
+    Files.deleteIfExists(times);
+    BuildResult result = runner.build();
+    assertEquals(TaskOutcome.SUCCESS, result.task(TASK).getOutcome(), "The task should run!");
+    assertTrue(Files.exists(times), "The task should be timed!");
+    try (Stream<String> lines = Files.lines(times)) {
+      return lines.mapToLong(Long::parseLong).sum();
+    }
+  }
+
+  /**
+   * Write an init script that records how long each {@code createGitProperties} task took, from
+   * the task events of the build, in milliseconds, one task per line.
+   */
+  private static Path writeInitScript(Path initScript, Path times) throws IOException {
+    String script =
+        String.format(
+            """
+            import javax.inject.Inject
+            import org.gradle.api.services.BuildService
+            import org.gradle.api.services.BuildServiceParameters
+            import org.gradle.build.event.BuildEventsListenerRegistry
+            import org.gradle.tooling.events.FinishEvent
+            import org.gradle.tooling.events.OperationCompletionListener
+            import org.gradle.tooling.events.task.TaskFinishEvent
+
+            abstract class TaskTimes
+                implements BuildService<BuildServiceParameters.None>, OperationCompletionListener {
+              @Override
+              void onFinish(FinishEvent event) {
+                if (event instanceof TaskFinishEvent
+                    && event.descriptor.taskPath.endsWith('%s')) {
+                  long millis = event.result.endTime - event.result.startTime
+                  synchronized (this) {
+                    new File('%s').append("${millis}\\n")
+                  }
+                }
+              }
+            }
+
+            abstract class TaskTimesPlugin implements Plugin<Gradle> {
+              @Inject
+              abstract BuildEventsListenerRegistry getRegistry()
+
+              @Override
+              void apply(Gradle gradle) {
+                registry.onTaskCompletion(
+                    gradle.sharedServices.registerIfAbsent('taskTimes', TaskTimes) {})
+              }
+            }
+
+            apply plugin: TaskTimesPlugin
+            """,
+            TASK,
+            times.toAbsolutePath().toString().replace('\\', '/'));
+    Files.writeString(initScript, script);
+    return initScript;
+  }
+
+  private static synchronized void recordTime(String name, long millis) {
+    MEASURED.put(name, millis);
+  }
+
+  private static void assertWithinBudget(Properties baseline, String name, long millis) {
+    String stored = baseline.getProperty(name);
+    assertNotNull(stored, name + " has no baseline; run with -PupdatePerformanceBaseline");
+    double tolerance = Double.parseDouble(System.getProperty("git_details.perf.tolerance"));
+    long budget =
+        Math.max(
+            (long) (Long.parseLong(stored) * tolerance), Long.parseLong(stored) + MIN_SLACK_MILLIS);
+    assertTrue(
+        millis <= budget,
+        String.format(
+            "%s took %d ms, over the budget of %d ms (baseline %s ms)",
+            name, millis, budget, stored));
+  }
+
+  private static Path testKitDir() {
+    return Path.of(System.getProperty("git_details.perf.testKitDir"));
+  }
+
+  private static boolean updateBaseline() {
+    return Boolean.getBoolean("git_details.perf.updateBaseline");
+  }
+
+  private static Path baselineFile() {
+    return Path.of(System.getProperty("git_details.perf.baseline"));
+  }
+
+  private static Properties readBaseline() throws IOException {
+    Properties baseline = new Properties();
+    try (Reader reader = Files.newBufferedReader(baselineFile())) {
+      baseline.load(reader);
+    }
+    return baseline;
+  }
+
+  /** Write the measured times, sorted so that the stored baseline has stable diffs. */
+  private static void write(Path file) throws IOException {
+    StringBuilder contents = new StringBuilder("# createGitProperties times in milliseconds\n");
+    MEASURED.forEach(
+        (name, millis) -> contents.append(name).append('=').append(millis).append('\n'));
+    Files.createDirectories(file.getParent());
+    Files.writeString(file, contents);
+  }
+}
@@ -0,0 +1,54 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GeneratedFilesTest {
+  private static final FileTime OLD_TIME = FileTime.fromMillis(1_000_000_000_000L);
+
+  @TempDir Path directory;
+
+  @Test
+  void unchangedFileNotWritten() throws Exception {
+    Path file = directory.resolve("nested/git-info.properties");
+    assertTrue(GeneratedFiles.writeIfChanged(file, "git_sha=abc\n"));
+    Files.setLastModifiedTime(file, OLD_TIME);
+
+    assertFalse(GeneratedFiles.writeIfChanged(file, "git_sha=abc\n"));
+    assertEquals(
+        OLD_TIME, Files.getLastModifiedTime(file), "Unchanged file should not be touched!");
+  }
+
+  @Test
+  void changedFileWritten() throws Exception {
+    Path file = directory.resolve("git-info.properties");
+    GeneratedFiles.writeIfChanged(file, "git_sha=abc\n");
+
+    assertTrue(GeneratedFiles.writeIfChanged(file, "git_sha=def\n"));
+    assertEquals("git_sha=def\n", Files.readString(file));
+    try (Stream<Path> files = Files.list(directory)) {
+      assertEquals(1, files.count(), "Temporary files should be removed!");
+    }
+  }
+}
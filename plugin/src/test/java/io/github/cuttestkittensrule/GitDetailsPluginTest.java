@@ -33,5 +33,7 @@ class GitDetailsPluginTest {
 
     // Verify the result
     assertNotNull(project.getTasks().findByName(GitDetailsPlugin.GEN_PROPERTY_TASK_NAME));
+    assertNotNull(project.getTasks().findByName(GitDetailsPlugin.GEN_CLASS_TASK_NAME));
+    assertNotNull(project.getTasks().findByName(GitDetailsPlugin.GEN_OUTPUTS_TASK_NAME));
   }
 }
@@ -0,0 +1,96 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GitDirectoryTest {
+  private static final String SHA = "0123456789abcdef0123456789abcdef01234567";
+  private static final String OTHER_SHA = "89abcdef0123456789abcdef0123456789abcdef";
+
+  @TempDir Path repoRoot;
+
+  @Test
+  void branchHead() throws Exception {
+    Files.createDirectories(repoRoot.resolve(".git/refs/heads/feature"));
+    Files.writeString(repoRoot.resolve(".git/HEAD"), "ref: refs/heads/feature/x\n");
+    Files.writeString(repoRoot.resolve(".git/refs/heads/feature/x"), SHA + "\n");
+
+    assertEquals(
+        new GitDirectory.Head(SHA, "feature/x"), GitDirectory.of(repoRoot.toFile()).head());
+  }
+
+  @Test
+  void packedBranchHead() throws Exception {
+    Files.createDirectories(repoRoot.resolve(".git"));
+    Files.writeString(repoRoot.resolve(".git/HEAD"), "ref: refs/heads/main\n");
+    Files.writeString(
+        repoRoot.resolve(".git/packed-refs"),
+        "# pack-refs with: peeled fully-peeled sorted\n" + SHA + " refs/heads/main\n");
+
+    assertEquals(new GitDirectory.Head(SHA, "main"), GitDirectory.of(repoRoot.toFile()).head());
+  }
+
+  @Test
+  void detachedHead() throws Exception {
+    Files.createDirectories(repoRoot.resolve(".git"));
+    Files.writeString(repoRoot.resolve(".git/HEAD"), SHA + "\n");
+
+    assertEquals(new GitDirectory.Head(SHA, null), GitDirectory.of(repoRoot.toFile()).head());
+  }
+
+  @Test
+  void unbornBranch() throws Exception {
+    Files.createDirectories(repoRoot.resolve(".git/refs/heads"));
+    Files.writeString(repoRoot.resolve(".git/HEAD"), "ref: refs/heads/main\n");
+
+    assertNull(GitDirectory.of(repoRoot.toFile()).head());
+  }
+
+  @Test
+  void linkedWorktree() throws Exception {
+    // laid out like `git worktree add ../worktree`
+    Path main = repoRoot.resolve("main/.git");
+    Path gitDir = main.resolve("worktrees/worktree");
+    Path worktree = Files.createDirectories(repoRoot.resolve("worktree"));
+    Files.createDirectories(main.resolve("refs/heads"));
+    Files.createDirectories(gitDir);
+    Files.writeString(main.resolve("HEAD"), "ref: refs/heads/main\n");
+    Files.writeString(main.resolve("refs/heads/main"), SHA + "\n");
+    Files.writeString(main.resolve("refs/heads/topic"), OTHER_SHA + "\n");
+    Files.writeString(worktree.resolve(".git"), "gitdir: ../main/.git/worktrees/worktree\n");
+    Files.writeString(gitDir.resolve("commondir"), "../..\n");
+    Files.writeString(gitDir.resolve("HEAD"), "ref: refs/heads/topic\n");
+
+    GitDirectory directory = GitDirectory.of(worktree.toFile());
+    assertTrue(directory.exists());
+    assertEquals(new GitDirectory.Head(OTHER_SHA, "topic"), directory.head());
+    assertEquals(gitDir.resolve("index").toFile(), directory.indexFile());
+    assertEquals(main.resolve("refs/tags").normalize().toFile(), directory.tagFiles().get(0));
+  }
+
+  @Test
+  void missingRepository() {
+    GitDirectory directory = GitDirectory.of(repoRoot.toFile());
+    assertFalse(directory.exists());
+    assertNull(directory.head());
+  }
+}
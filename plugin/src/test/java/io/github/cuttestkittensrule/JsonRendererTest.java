@@ -0,0 +1,48 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import org.junit.jupiter.api.Test;
+
+class JsonRendererTest {
+  private static final String SHA = "0123456789abcdef0123456789abcdef01234567";
+
+  @Test
+  void matchesNativeFormat() {
+    GitSnapshot snapshot =
+        new GitSnapshot(
+            SHA,
+            "feature/\"quoted\"",
+            OffsetDateTime.of(2025, 1, 2, 3, 4, 5, 0, ZoneOffset.ofHours(1)),
+            null,
+            new GitSnapshot.Describe(null, 0, "0123456"),
+            null,
+            null,
+            null);
+
+    assertEquals(
+        "{\"git_sha\":\""
+            + SHA
+            + "\",\"commit_date\":\"2025-01-02T03:04:05+01:00\",\"build_date\":null"
+            + ",\"dirty\":null,\"branch_name\":\"feature/\\\"quoted\\\"\",\"nearest_tag\":null"
+            + ",\"commits_since_tag\":null,\"describe\":\"0123456\"}\n",
+        JsonRenderer.render(snapshot, null));
+  }
+}
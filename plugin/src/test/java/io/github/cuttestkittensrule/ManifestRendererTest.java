@@ -0,0 +1,59 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ManifestRendererTest {
+  private static final String SHA = "0123456789abcdef0123456789abcdef01234567";
+
+  @TempDir Path directory;
+
+  @Test
+  void attributesRoundTrip() throws Exception {
+    // long enough to be wrapped onto continuation lines
+    String branch = "refs/heads/" + "a-very-long-branch-name-".repeat(5);
+    GitSnapshot snapshot =
+        new GitSnapshot(
+            SHA,
+            branch,
+            OffsetDateTime.of(2025, 1, 2, 3, 4, 5, 0, ZoneOffset.ofHours(1)),
+            true,
+            new GitSnapshot.Describe("v1.0", 2, "0123456"),
+            null,
+            null,
+            null);
+    Path manifest = directory.resolve("MANIFEST.MF");
+    Files.writeString(manifest, ManifestRenderer.render(snapshot, null));
+
+    Map<String, String> attributes = ManifestRenderer.read(manifest);
+    assertEquals(SHA, attributes.get(ManifestRenderer.SHA));
+    assertEquals("2025-01-02T03:04:05+01:00", attributes.get(ManifestRenderer.COMMIT_DATE));
+    assertEquals("true", attributes.get(ManifestRenderer.DIRTY));
+    assertEquals(branch, attributes.get(ManifestRenderer.BRANCH));
+    assertEquals("v1.0-2-g0123456", attributes.get(ManifestRenderer.DESCRIBE));
+    assertFalse(attributes.containsKey(ManifestRenderer.BUILD_DATE), "No build date was given!");
+    assertFalse(attributes.containsKey(ManifestRenderer.LAST_CHANGED_SHA));
+  }
+}
@@ -0,0 +1,146 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class NativeLibraryCacheTest {
+  private static final byte[] LIBRARY = "not really a library".getBytes(StandardCharsets.UTF_8);
+
+  @TempDir Path cacheRoot;
+
+  @Test
+  void extractedOnce() throws Exception {
+    Path first = NativeLibraryCache.extract(LIBRARY, cacheRoot, "libgit_details.so");
+    long modified = Files.getLastModifiedTime(first).toMillis();
+    Path second = NativeLibraryCache.extract(LIBRARY, cacheRoot, "libgit_details.so");
+
+    assertEquals(first, second);
+    assertArrayEquals(LIBRARY, Files.readAllBytes(first));
+    assertEquals(modified, Files.getLastModifiedTime(second).toMillis());
+  }
+
+  @Test
+  void keyedByContents() throws Exception {
+    Path first = NativeLibraryCache.extract(LIBRARY, cacheRoot, "libgit_details.so");
+    byte[] changed = "a different library".getBytes(StandardCharsets.UTF_8);
+    Path second = NativeLibraryCache.extract(changed, cacheRoot, "libgit_details.so");
+
+    assertNotEquals(first.getParent(), second.getParent());
+    assertArrayEquals(LIBRARY, Files.readAllBytes(first));
+    assertArrayEquals(changed, Files.readAllBytes(second));
+  }
+
+  @Test
+  void concurrentExtraction() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Path>> futures = new ArrayList<>();
+      Callable<Path> extract =
+          () -> NativeLibraryCache.extract(LIBRARY, cacheRoot, "libgit_details.so");
+      for (int i = 0; i < 32; i++) {
+        futures.add(executor.submit(extract));
+      }
+      Set<Path> paths = new HashSet<>();
+      for (Future<Path> future : futures) {
+        paths.add(future.get());
+      }
+      assertEquals(1, paths.size(), "Every extraction should use the same file!");
+      assertArrayEquals(LIBRARY, Files.readAllBytes(paths.iterator().next()));
+    } finally {
+      executor.shutdown();
+    }
+    try (Stream<Path> files = Files.walk(cacheRoot)) {
+      Set<String> names =
+          files
+              .filter(Files::isRegularFile)
+              .map(path -> path.getFileName().toString())
+              .collect(Collectors.toSet());
+      assertEquals(Set.of("libgit_details.so"), names, "Temporary files should be removed!");
+    }
+  }
+
+  @Test
+  void jarLibraryReadOnce(@TempDir Path jars) throws Exception {
+    URL resource = jarResource(jars.resolve("plugin.jar"), LIBRARY);
+    Path first = NativeLibraryCache.extract(resource, cacheRoot, "libgit_details.so");
+    Files.writeString(first, "already cached");
+    Path second = NativeLibraryCache.extract(resource, cacheRoot, "libgit_details.so");
+
+    assertEquals(first, second);
+    assertEquals("already cached", Files.readString(second), "Cached library should be reused!");
+  }
+
+  @Test
+  void jarLibraryKeyedByChecksum(@TempDir Path jars) throws Exception {
+    URL resource = jarResource(jars.resolve("first.jar"), LIBRARY);
+    URL same = jarResource(jars.resolve("same.jar"), LIBRARY);
+    byte[] changed = "a different library".getBytes(StandardCharsets.UTF_8);
+    URL different = jarResource(jars.resolve("different.jar"), changed);
+
+    Path first = NativeLibraryCache.extract(resource, cacheRoot, "libgit_details.so");
+    Path second = NativeLibraryCache.extract(same, cacheRoot, "libgit_details.so");
+    Path third = NativeLibraryCache.extract(different, cacheRoot, "libgit_details.so");
+
+    assertEquals(first, second);
+    assertNotEquals(first.getParent(), third.getParent());
+    assertArrayEquals(LIBRARY, Files.readAllBytes(first));
+    assertArrayEquals(changed, Files.readAllBytes(third));
+  }
+
+  @Test
+  void fileLibraryKeyedByContents(@TempDir Path classes) throws Exception {
+    Path file = classes.resolve("libgit_details.so");
+    Files.write(file, LIBRARY);
+
+    assertNull(NativeLibraryCache.jarEntryKey(file.toUri().toURL()));
+    assertEquals(
+        NativeLibraryCache.extract(LIBRARY, cacheRoot, "libgit_details.so"),
+        NativeLibraryCache.extract(file.toUri().toURL(), cacheRoot, "libgit_details.so"));
+  }
+
+  private static URL jarResource(Path jar, byte[] contents) throws IOException {
+    try (OutputStream out = Files.newOutputStream(jar);
+        JarOutputStream jarOut = new JarOutputStream(out)) {
+      jarOut.putNextEntry(new JarEntry("META-INF/natives/libgit_details.so"));
+      jarOut.write(contents);
+      jarOut.closeEntry();
+    }
+    return URI.create("jar:" + jar.toUri() + "!/META-INF/natives/libgit_details.so").toURL();
+  }
+}
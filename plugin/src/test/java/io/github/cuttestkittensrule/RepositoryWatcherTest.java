@@ -0,0 +1,146 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RepositoryWatcherTest {
+  /** Events are delivered asynchronously, so wait this long for them to arrive. */
+  private static final long TIMEOUT_MILLIS = 5_000;
+
+  @TempDir Path repoRoot;
+  private RepositoryWatcher watcher;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    Files.createDirectories(repoRoot.resolve(".git/refs/heads"));
+    Files.writeString(repoRoot.resolve(".git/HEAD"), "ref: refs/heads/main\n");
+    Files.createDirectories(repoRoot.resolve("src"));
+    watcher =
+        RepositoryWatcher.create(
+            repoRoot,
+            paths -> {
+              boolean[] ignored = new boolean[paths.length];
+              for (int i = 0; i < paths.length; i++) {
+                ignored[i] = paths[i].startsWith("build/");
+              }
+              return ignored;
+            });
+    Assumptions.assumeTrue(watcher != null, "File system events are not available");
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    if (watcher != null) {
+      watcher.close();
+    }
+  }
+
+  @Test
+  void gitDirectoryChanges() throws Exception {
+    long generation = watcher.poll();
+    assertTrue(watcher.watchesWorkingTree());
+
+    Files.writeString(repoRoot.resolve(".git/refs/heads/main"), "0123\n");
+    generation = awaitChange(generation);
+    Files.writeString(repoRoot.resolve(".git/HEAD"), "0123\n");
+    awaitChange(generation);
+  }
+
+  @Test
+  void unrelatedChangesIgnored() throws Exception {
+    long generation = watcher.poll();
+    Files.writeString(repoRoot.resolve(".git/index.lock"), "");
+    Files.createDirectories(repoRoot.resolve("build"));
+    Files.writeString(repoRoot.resolve("build/output.txt"), "");
+    // a change that is seen, so the other events must have arrived before it
+    Files.writeString(repoRoot.resolve("src/Main.java"), "");
+    long changed = awaitChange(generation);
+    assertEquals(generation + 1, changed, "Only the source file should be a change!");
+  }
+
+  @Test
+  void newDirectoriesWatched() throws Exception {
+    long generation = watcher.poll();
+    Files.createDirectories(repoRoot.resolve("src/nested"));
+    generation = awaitChange(generation);
+    Files.writeString(repoRoot.resolve("src/nested/Main.java"), "");
+    awaitChange(generation);
+  }
+
+  @Test
+  void excludeChangesStopWatcher() throws Exception {
+    long generation = watcher.poll();
+    Files.createDirectories(repoRoot.resolve(".git/info"));
+    awaitChange(generation);
+    Files.writeString(repoRoot.resolve(".git/info/exclude"), "src/\n");
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (watcher.poll() >= 0) {
+      assertTrue(System.currentTimeMillis() < deadline, "Change was not seen!");
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  void gitignoreChangesStopWatcher() throws Exception {
+    watcher.poll();
+    Files.writeString(repoRoot.resolve("src/.gitignore"), "generated/\n");
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (watcher.poll() >= 0) {
+      assertTrue(System.currentTimeMillis() < deadline, "Change was not seen!");
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  void linkedWorktreeChanges(@TempDir Path mainRoot, @TempDir Path worktreeRoot)
+      throws Exception {
+    Path commonDir = mainRoot.resolve(".git");
+    Path gitDir = commonDir.resolve("worktrees/linked");
+    Files.createDirectories(commonDir.resolve("refs/heads"));
+    Files.createDirectories(gitDir);
+    Files.writeString(gitDir.resolve("HEAD"), "ref: refs/heads/main\n");
+    Files.writeString(gitDir.resolve("commondir"), "../..\n");
+    Files.writeString(worktreeRoot.resolve(".git"), "gitdir: " + gitDir + "\n");
+    watcher.close();
+    watcher = RepositoryWatcher.create(worktreeRoot, paths -> new boolean[paths.length]);
+
+    long generation = watcher.poll();
+    Files.writeString(commonDir.resolve("refs/heads/main"), "0123\n");
+    generation = awaitChange(generation);
+    Files.writeString(gitDir.resolve("HEAD"), "0123\n");
+    awaitChange(generation);
+  }
+
+  private long awaitChange(long generation) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    long current;
+    while ((current = watcher.poll()) == generation) {
+      assertTrue(System.currentTimeMillis() < deadline, "Change was not seen!");
+      Thread.sleep(10);
+    }
+    assertTrue(current > generation, "Watcher should not lose events!");
+    return current;
+  }
+}
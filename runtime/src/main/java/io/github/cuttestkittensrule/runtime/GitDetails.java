@@ -0,0 +1,362 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule.runtime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.jar.Attributes;
+
+/**
+ * Typed access to the git details generated by the git_details plugin.
+ *
+ * <p>The generated resource is read and parsed once; every getter after that only reads a field,
+ * so they can be called from hot paths without allocating (except for {@link #getShaBytes()},
+ * which returns a copy).
+ */
+public final class GitDetails {
+  /** The path of the resource generated with the default configuration. */
+  public static final String DEFAULT_RESOURCE = "/git-info.properties";
+
+  /** The value of times that are not available. */
+  public static final long NO_TIME = Long.MIN_VALUE;
+
+  /** The names of the manifest attributes, and the properties they have the values of. */
+  private static final String[][] MANIFEST_ATTRIBUTES = {
+    {"Git-Sha", "git_sha"},
+    {"Git-Commit-Date", "commit_date"},
+    {"Git-Build-Date", "build_date"},
+    {"Git-Dirty", "has_uncommited_changes"},
+    {"Git-Branch", "branch_name"},
+    {"Git-Nearest-Tag", "nearest_tag"},
+    {"Git-Commits-Since-Tag", "commits_since_tag"},
+    {"Git-Describe", "describe"},
+    {"Git-Last-Changed-Sha", "last_changed_sha"},
+    {"Git-Dirty-Fingerprint", "dirty_fingerprint"},
+  };
+
+  private static final GitDetails UNAVAILABLE =
+      new GitDetails(
+          false, "", new byte[0], NO_TIME, NO_TIME, false, null, null, -1, null, null, null);
+
+  /** Lazily loads the default resource the first time that {@link #get()} is called. */
+  private static final class Holder {
+    static final GitDetails DEFAULT = load(GitDetails.class, DEFAULT_RESOURCE);
+  }
+
+  private final boolean available;
+  private final String sha;
+  private final byte[] shaBytes;
+  private final long commitTimeMillis;
+  private final long buildTimeMillis;
+  private final boolean dirty;
+  private final Optional<String> branch;
+  private final Optional<String> nearestTag;
+  private final long commitsSinceTag;
+  private final Optional<String> describe;
+  private final Optional<String> lastChangedSha;
+  private final Optional<String> dirtyFingerprint;
+
+  private GitDetails(
+      boolean available,
+      String sha,
+      byte[] shaBytes,
+      long commitTimeMillis,
+      long buildTimeMillis,
+      boolean dirty,
+      String branch,
+      String nearestTag,
+      long commitsSinceTag,
+      String describe,
+      String lastChangedSha,
+      String dirtyFingerprint) {
+    this.available = available;
+    this.sha = sha;
+    this.shaBytes = shaBytes;
+    this.commitTimeMillis = commitTimeMillis;
+    this.buildTimeMillis = buildTimeMillis;
+    this.dirty = dirty;
+    this.branch = Optional.ofNullable(branch);
+    this.nearestTag = Optional.ofNullable(nearestTag);
+    this.commitsSinceTag = commitsSinceTag;
+    this.describe = Optional.ofNullable(describe);
+    this.lastChangedSha = Optional.ofNullable(lastChangedSha);
+    this.dirtyFingerprint = Optional.ofNullable(dirtyFingerprint);
+  }
+
+  /**
+   * Get the git details from the resource generated with the default configuration. The resource
+   * is loaded the first time this is called.
+   *
+   * @return the git details
+   */
+  public static GitDetails get() {
+    return Holder.DEFAULT;
+  }
+
+  /**
+   * Load the git details from a resource. The result should be stored, since the resource is read
+   * and parsed every time this is called.
+   *
+   * @param anchor The class to load the resource with
+   * @param resource The path of the resource, as passed to {@link Class#getResourceAsStream}
+   * @return the git details, which are not {@link #isAvailable() available} if the resource does
+   *     not exist
+   * @throws UncheckedIOException if the resource could not be read
+   * @throws IllegalArgumentException if the resource is not a valid git details file
+   */
+  public static GitDetails load(Class<?> anchor, String resource) {
+    Objects.requireNonNull(anchor, "Please pass a non-null anchor class");
+    Objects.requireNonNull(resource, "Please pass a non-null resource");
+    Properties properties = new Properties();
+    try (InputStream is = anchor.getResourceAsStream(resource)) {
+      if (is == null) {
+        return UNAVAILABLE;
+      }
+      properties.load(is);
+    } catch (IOException e) {
+      throw new UncheckedIOException(String.format("Failed to read \"%s\"", resource), e);
+    }
+    return parse(properties);
+  }
+
+  /**
+   * Parse the git details from the contents of a generated properties file. Both the default and
+   * gversion compatible property names are supported.
+   *
+   * @param properties The generated properties
+   * @return the git details
+   * @throws IllegalArgumentException if the properties are not valid git details
+   */
+  public static GitDetails parse(Properties properties) {
+    String sha = properties.getProperty("git_sha");
+    if (sha == null || sha.isBlank()) {
+      throw new IllegalArgumentException("git_sha does not exist in properties!");
+    }
+    String commitDate = properties.getProperty("commit_date", properties.getProperty("git_date"));
+    long buildTimeMillis = parseTime(properties.getProperty("build_date"));
+    String buildUnixTime = properties.getProperty("build_unix_time");
+    if (buildTimeMillis == NO_TIME && buildUnixTime != null) {
+      buildTimeMillis = Long.parseLong(buildUnixTime) * 1_000;
+    }
+    boolean dirty;
+    String changes = properties.getProperty("has_uncommited_changes");
+    if (changes != null) {
+      dirty = Boolean.parseBoolean(changes);
+    } else {
+      dirty = "1".equals(properties.getProperty("dirty"));
+    }
+    String commitsSinceTag = properties.getProperty("commits_since_tag");
+    return new GitDetails(
+        true,
+        sha,
+        parseHex(sha),
+        parseTime(commitDate),
+        buildTimeMillis,
+        dirty,
+        properties.getProperty("branch_name"),
+        properties.getProperty("nearest_tag"),
+        commitsSinceTag == null ? -1 : Long.parseLong(commitsSinceTag),
+        properties.getProperty("describe"),
+        properties.getProperty("last_changed_sha"),
+        properties.getProperty("dirty_fingerprint"));
+  }
+
+  /**
+   * Parse the git details from the main attributes of a jar manifest, generated with the {@code
+   * MANIFEST} output mode of the plugin.
+   *
+   * @param attributes The main attributes of the manifest (see {@link
+   *     java.util.jar.Manifest#getMainAttributes()})
+   * @return the git details
+   * @throws IllegalArgumentException if the attributes are not valid git details
+   */
+  public static GitDetails parse(Attributes attributes) {
+    Objects.requireNonNull(attributes, "Please pass non-null attributes");
+    Properties properties = new Properties();
+    for (String[] attribute : MANIFEST_ATTRIBUTES) {
+      String value = attributes.getValue(attribute[0]);
+      if (value != null) {
+        properties.setProperty(attribute[1], value);
+      }
+    }
+    return parse(properties);
+  }
+
+  private static long parseTime(String time) {
+    if (time == null) {
+      return NO_TIME;
+    }
+    try {
+      return OffsetDateTime.parse(time).toInstant().toEpochMilli();
+    } catch (DateTimeParseException e) {
+      throw new IllegalArgumentException(String.format("\"%s\" is not a valid date", time), e);
+    }
+  }
+
+  private static byte[] parseHex(String hex) {
+    if (hex.length() % 2 != 0) {
+      throw new IllegalArgumentException(String.format("\"%s\" is not a valid sha", hex));
+    }
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      int high = Character.digit(hex.charAt(2 * i), 16);
+      int low = Character.digit(hex.charAt(2 * i + 1), 16);
+      if (high < 0 || low < 0) {
+        throw new IllegalArgumentException(String.format("\"%s\" is not a valid sha", hex));
+      }
+      bytes[i] = (byte) ((high << 4) | low);
+    }
+    return bytes;
+  }
+
+  /**
+   * Check if the git details were available. If they were not, {@link #getSha()} is empty and the
+   * times are {@link #NO_TIME}.
+   *
+   * @return if the git details were available
+   */
+  public boolean isAvailable() {
+    return available;
+  }
+
+  /**
+   * Get the SHA of the checked out commit, as hex.
+   *
+   * @return the SHA of the checked out commit
+   */
+  public String getSha() {
+    return sha;
+  }
+
+  /**
+   * Get the SHA of the checked out commit. This returns a copy; use {@link #copyShaBytes(byte[],
+   * int)} to avoid allocating.
+   *
+   * @return a copy of the SHA of the checked out commit
+   */
+  public byte[] getShaBytes() {
+    return shaBytes.clone();
+  }
+
+  /**
+   * Copy the SHA of the checked out commit into an array.
+   *
+   * @param destination The array to copy the SHA into
+   * @param offset The index in {@code destination} to start copying at
+   * @return the number of bytes copied
+   * @throws IndexOutOfBoundsException if the SHA does not fit in {@code destination}
+   */
+  public int copyShaBytes(byte[] destination, int offset) {
+    System.arraycopy(shaBytes, 0, destination, offset, shaBytes.length);
+    return shaBytes.length;
+  }
+
+  /**
+   * Get the time that the checked out commit was made.
+   *
+   * @return the UNIX timestamp of the commit, in milliseconds, or {@link #NO_TIME} if it is not
+   *     available
+   */
+  public long getCommitTimeMillis() {
+    return commitTimeMillis;
+  }
+
+  /**
+   * Get the time that the code was built.
+   *
+   * @return the UNIX timestamp of the build, in milliseconds, or {@link #NO_TIME} if it is not
+   *     available
+   */
+  public long getBuildTimeMillis() {
+    return buildTimeMillis;
+  }
+
+  /**
+   * Check if there were uncommitted changes when the code was built.
+   *
+   * @return if there were uncommitted changes, or {@code false} if it was not generated
+   */
+  public boolean isDirty() {
+    return dirty;
+  }
+
+  /**
+   * Get the name of the checked out branch.
+   *
+   * @return the name of the checked out branch, or an empty optional if a branch was not checked
+   *     out
+   */
+  public Optional<String> getBranch() {
+    return branch;
+  }
+
+  /**
+   * Get the nearest tag of the checked out commit. Only available if {@code describe} is enabled
+   * in the plugin.
+   *
+   * @return the name of the nearest tag, or an empty optional if it is not available
+   */
+  public Optional<String> getNearestTag() {
+    return nearestTag;
+  }
+
+  /**
+   * Get the number of commits made since the nearest tag.
+   *
+   * @return the number of commits since the nearest tag, or -1 if it is not available
+   */
+  public long getCommitsSinceTag() {
+    return commitsSinceTag;
+  }
+
+  /**
+   * Get the description of the checked out commit, formatted like {@code git describe --tags
+   * --always}. Only available if {@code describe} is enabled in the plugin.
+   *
+   * @return the description, or an empty optional if it is not available
+   */
+  public Optional<String> getDescribe() {
+    return describe;
+  }
+
+  /**
+   * Get the SHA of the last commit that changed the project directory. Only available if {@code
+   * scopeToProject} is enabled in the plugin.
+   *
+   * @return the SHA of the last commit that changed the project, or an empty optional if it is not
+   *     available
+   */
+  public Optional<String> getLastChangedSha() {
+    return lastChangedSha;
+  }
+
+  /**
+   * Get the hash of the uncommitted changes that were built. Builds of the same uncommitted changes
+   * on top of the same commit have the same hash. Only available if {@code dirtyFingerprint} is
+   * enabled in the plugin and there were uncommitted changes.
+   *
+   * @return the hash of the uncommitted changes, or an empty optional if it is not available
+   */
+  public Optional<String> getDirtyFingerprint() {
+    return dirtyFingerprint;
+  }
+}
@@ -0,0 +1,113 @@
+/*
+Copyright 2025 Kyle C
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package io.github.cuttestkittensrule.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Optional;
+import java.util.Properties;
+import java.util.jar.Attributes;
+import org.junit.jupiter.api.Test;
+
+class GitDetailsTest {
+  private static final String SHA = "0123456789abcdef0123456789abcdef01234567";
+  private static final String LAST_CHANGED_SHA = "89abcdef0123456789abcdef0123456789abcdef";
+  private static final String DIRTY_FINGERPRINT = "fedcba9876543210fedcba9876543210fedcba98";
+
+  @Test
+  void defaultResource() {
+    GitDetails details = GitDetails.get();
+    assertSame(details, GitDetails.get());
+    assertTrue(details.isAvailable());
+    assertEquals(SHA, details.getSha());
+    assertEquals(1735783445000L, details.getCommitTimeMillis());
+    assertEquals(1735790400000L, details.getBuildTimeMillis());
+    assertTrue(details.isDirty());
+    assertEquals(Optional.of("refs/heads/main"), details.getBranch());
+    assertEquals(Optional.of("v1.2.0"), details.getNearestTag());
+    assertEquals(3, details.getCommitsSinceTag());
+    assertEquals(Optional.of("v1.2.0-3-g0123456"), details.getDescribe());
+    assertEquals(Optional.of(LAST_CHANGED_SHA), details.getLastChangedSha());
+    assertEquals(Optional.of(DIRTY_FINGERPRINT), details.getDirtyFingerprint());
+  }
+
+  @Test
+  void gversionResource() {
+    GitDetails details = GitDetails.load(GitDetailsTest.class, "/gversion.properties");
+    assertEquals(SHA, details.getSha());
+    assertEquals(1735783445000L, details.getCommitTimeMillis());
+    assertEquals(1735790400000L, details.getBuildTimeMillis());
+    assertFalse(details.isDirty());
+    assertEquals(Optional.empty(), details.getBranch());
+    assertEquals(Optional.empty(), details.getNearestTag());
+    assertEquals(-1, details.getCommitsSinceTag());
+    assertEquals(Optional.empty(), details.getDescribe());
+    assertEquals(Optional.empty(), details.getLastChangedSha());
+    assertEquals(Optional.empty(), details.getDirtyFingerprint());
+  }
+
+  @Test
+  void manifestAttributes() {
+    Attributes attributes = new Attributes();
+    attributes.putValue("Git-Sha", SHA);
+    attributes.putValue("Git-Commit-Date", "2025-01-02T03:04:05+01:00");
+    attributes.putValue("Git-Dirty", "true");
+    attributes.putValue("Git-Nearest-Tag", "v1.2.0");
+    attributes.putValue("Git-Commits-Since-Tag", "3");
+    GitDetails details = GitDetails.parse(attributes);
+    assertEquals(SHA, details.getSha());
+    assertEquals(1735783445000L, details.getCommitTimeMillis());
+    assertEquals(GitDetails.NO_TIME, details.getBuildTimeMillis());
+    assertTrue(details.isDirty());
+    assertEquals(Optional.empty(), details.getBranch());
+    assertEquals(Optional.of("v1.2.0"), details.getNearestTag());
+    assertEquals(3, details.getCommitsSinceTag());
+    assertThrows(IllegalArgumentException.class, () -> GitDetails.parse(new Attributes()));
+  }
+
+  @Test
+  void missingResource() {
+    GitDetails details = GitDetails.load(GitDetailsTest.class, "/does-not-exist.properties");
+    assertFalse(details.isAvailable());
+    assertEquals(GitDetails.NO_TIME, details.getCommitTimeMillis());
+    assertEquals(GitDetails.NO_TIME, details.getBuildTimeMillis());
+    assertEquals(0, details.getShaBytes().length);
+  }
+
+  @Test
+  void shaBytes() {
+    GitDetails details = GitDetails.get();
+    byte[] bytes = details.getShaBytes();
+    assertEquals(20, bytes.length);
+    assertEquals((byte) 0x01, bytes[0]);
+    assertEquals((byte) 0xef, bytes[7]);
+    bytes[0] = 0;
+    assertEquals((byte) 0x01, details.getShaBytes()[0], "getShaBytes should return a copy");
+
+    byte[] destination = new byte[24];
+    assertEquals(20, details.copyShaBytes(destination, 4));
+    assertEquals((byte) 0x01, destination[4]);
+    assertThrows(IndexOutOfBoundsException.class, () -> details.copyShaBytes(new byte[10], 0));
+  }
+
+  @Test
+  void invalidProperties() {
+    Properties properties = new Properties();
+    assertThrows(IllegalArgumentException.class, () -> GitDetails.parse(properties));
+    properties.setProperty("git_sha", "not a sha");
+    assertThrows(IllegalArgumentException.class, () -> GitDetails.parse(properties));
+  }
+}